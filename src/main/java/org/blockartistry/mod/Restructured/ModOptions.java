@@ -36,6 +36,12 @@ public final class ModOptions {
 	}
 
 	protected static final String CATEGORY_GLOBAL = "global";
+	protected static final String CONFIG_PARALLEL_SCHEMATIC_LOADING = "Parallel Schematic Loading";
+	protected static boolean parallelSchematicLoading = false;
+	protected static final String CONFIG_ENABLE_SCHEMATIC_CACHE = "Enable Schematic Cache";
+	protected static boolean enableSchematicCache = true;
+	protected static final String CONFIG_SCHEMATIC_MEMORY_CEILING = "Schematic Memory Ceiling";
+	protected static int schematicMemoryCeiling = 64;
 
 	protected static final String CATEGORY_LOGGING_CONTROL = "logging";
 	protected static final String CONFIG_ENABLE_DEBUG_LOGGING = "Enable Debug Logging";
@@ -54,6 +60,16 @@ public final class ModOptions {
 	protected static int generationChance = 65;
 	protected static final String CONFIG_ENABLE_THEMING = "Enable Theming";
 	protected static boolean enableTheming = true;
+	protected static final String CONFIG_BULK_PLACEMENT = "Bulk Structure Placement";
+	protected static boolean bulkPlacement = false;
+	protected static final String CONFIG_INCREMENTAL_PLACEMENT = "Incremental Structure Placement";
+	protected static boolean incrementalPlacement = false;
+	protected static final String CONFIG_PLACEMENT_BLOCK_BUDGET = "Placement Block Budget";
+	protected static int placementBlockBudget = 8192;
+	protected static final String CONFIG_PLACEMENT_TIME_BUDGET = "Placement Time Budget";
+	protected static int placementTimeBudget = 10;
+	protected static final String CONFIG_STRUCTURE_SPACING = "Minimum Structure Spacing";
+	protected static int structureSpacing = 4;
 	protected static final String CONFIG_DIMENSION_LIST = "Dimension List";
 	protected static String dimensionList = "0";
 	protected static final String CONFIG_DIMENSION_LIST_TYPE = "Dimension List as Blacklist";
@@ -80,9 +96,20 @@ public final class ModOptions {
 	public static void load(final Configuration config) {
 
 		// CATEGORY_GLOBAL
+		String comment = "Decode schematics on multiple threads during startup";
+		parallelSchematicLoading = config.getBoolean(CONFIG_PARALLEL_SCHEMATIC_LOADING, CATEGORY_GLOBAL,
+				parallelSchematicLoading, comment);
+
+		comment = "Keep decoded schematics in a disk cache to speed up startup";
+		enableSchematicCache = config.getBoolean(CONFIG_ENABLE_SCHEMATIC_CACHE, CATEGORY_GLOBAL, enableSchematicCache,
+				comment);
+
+		comment = "Megabytes of decoded schematics to keep in memory (0 keep all)";
+		schematicMemoryCeiling = config.getInt(CONFIG_SCHEMATIC_MEMORY_CEILING, CATEGORY_GLOBAL,
+				schematicMemoryCeiling, 0, Integer.MAX_VALUE, comment);
 
 		// CATEGORY_LOGGING_CONTROL
-		String comment = "Enables/disables online version checking";
+		comment = "Enables/disables online version checking";
 		enableOnlineVersionCheck = config.getBoolean(CONFIG_ENABLE_ONLINE_VERSION_CHECK, CATEGORY_LOGGING_CONTROL,
 				enableOnlineVersionCheck, comment);
 
@@ -114,6 +141,25 @@ public final class ModOptions {
 		comment = "Enables/disables biome theming of structures";
 		enableTheming = config.getBoolean(CONFIG_ENABLE_THEMING, CATEGORY_GENERATION, enableTheming, comment);
 
+		comment = "Write structure blocks directly into chunk storage rather than one at a time (experimental)";
+		bulkPlacement = config.getBoolean(CONFIG_BULK_PLACEMENT, CATEGORY_GENERATION, bulkPlacement, comment);
+
+		comment = "Place world structures over several ticks rather than all at once";
+		incrementalPlacement = config.getBoolean(CONFIG_INCREMENTAL_PLACEMENT, CATEGORY_GENERATION,
+				incrementalPlacement, comment);
+
+		comment = "Maximum blocks placed per tick when placing incrementally";
+		placementBlockBudget = config.getInt(CONFIG_PLACEMENT_BLOCK_BUDGET, CATEGORY_GENERATION, placementBlockBudget,
+				1, Integer.MAX_VALUE, comment);
+
+		comment = "Maximum milliseconds per tick spent placing incrementally (0 no limit)";
+		placementTimeBudget = config.getInt(CONFIG_PLACEMENT_TIME_BUDGET, CATEGORY_GENERATION, placementTimeBudget, 0,
+				1000, comment);
+
+		comment = "Minimum distance in chunks between world structures";
+		structureSpacing = config.getInt(CONFIG_STRUCTURE_SPACING, CATEGORY_GENERATION, structureSpacing, 0, 64,
+				comment);
+
 		comment = "List of dimensions to black/white list";
 		dimensionList = config.getString(CONFIG_DIMENSION_LIST, CATEGORY_GENERATION, dimensionList, comment);
 
@@ -152,6 +198,18 @@ public final class ModOptions {
 				mobSpawnWaterFactor, 0, Integer.MAX_VALUE, comment);
 	}
 
+	public static boolean getParallelSchematicLoading() {
+		return parallelSchematicLoading;
+	}
+
+	public static boolean getEnableSchematicCache() {
+		return enableSchematicCache;
+	}
+
+	public static int getSchematicMemoryCeiling() {
+		return schematicMemoryCeiling;
+	}
+
 	public static boolean getOnlineVersionChecking() {
 		return true;
 	}
@@ -180,6 +238,26 @@ public final class ModOptions {
 		return enableTheming;
 	}
 
+	public static boolean getBulkPlacement() {
+		return bulkPlacement;
+	}
+
+	public static boolean getIncrementalPlacement() {
+		return incrementalPlacement;
+	}
+
+	public static int getPlacementBlockBudget() {
+		return placementBlockBudget;
+	}
+
+	public static int getPlacementTimeBudget() {
+		return placementTimeBudget;
+	}
+
+	public static int getStructureSpacing() {
+		return structureSpacing;
+	}
+
 	public static boolean getBlockCreeperExplosion() {
 		return blockCreeperExplosion;
 	}
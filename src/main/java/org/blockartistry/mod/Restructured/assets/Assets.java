@@ -31,6 +31,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
 import net.minecraft.block.Block;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.WeightedRandomChestContent;
@@ -46,6 +48,8 @@ import org.blockartistry.mod.Restructured.ModLog;
 import org.blockartistry.mod.Restructured.ModOptions;
 import org.blockartistry.mod.Restructured.Restructured;
 import org.blockartistry.mod.Restructured.component.SchematicStructureCreationHandler;
+import org.blockartistry.mod.Restructured.util.AliasWeightTable;
+import org.blockartistry.mod.Restructured.util.FenwickWeightTable;
 import org.blockartistry.mod.Restructured.util.ItemStackHelper;
 import org.blockartistry.mod.Restructured.util.StreamUtils;
 import org.blockartistry.mod.Restructured.util.WeightTable;
@@ -66,6 +70,16 @@ public final class Assets {
 	private static final WeightTable<SchematicWeightItem> villageSchematics = new WeightTable<SchematicWeightItem>();
 	private static final WeightTable<SchematicWeightItem> worldSchematics = new WeightTable<SchematicWeightItem>();
 
+	// Template for village selection, built once the schematics are loaded
+	private static FenwickWeightTable<SchematicWeightItem> villageTable = null;
+
+	// Eligible world gen tables keyed by dimension and biome. Built on first
+	// use and shared from then on.
+	private static final Map<Long, AliasWeightTable<SchematicWeightItem>> worldTables = new ConcurrentHashMap<Long, AliasWeightTable<SchematicWeightItem>>();
+
+	// Whether any world gen schematic is allowed in a dimension
+	private static final Map<Integer, Boolean> worldDimensions = new ConcurrentHashMap<Integer, Boolean>();
+
 	static {
 		ModLog.info("Schematic ZIPs present: %s", Boolean.toString(ZipProcessor.areZipsPresent(accessPath)));
 		ModLog.info("Schematic Files present: %s", Boolean.toString(ZipProcessor.areSchematicsPresent(accessPath)));
@@ -170,30 +184,64 @@ public final class Assets {
 		return worldSchematics.size();
 	}
 
-	public static WeightTable<SchematicWeightItem> getTableForVillageGen() {
-		final WeightTable<SchematicWeightItem> table = new WeightTable<SchematicWeightItem>();
-		for (final SchematicWeightItem e : villageSchematics.getEntries()) {
-			try {
-				table.add((SchematicWeightItem) e.clone());
-			} catch (final CloneNotSupportedException e1) {
-				e1.printStackTrace();
-			}
-		}
-
-		return table;
+	/**
+	 * Largest horizontal extent of any world gen schematic, in blocks.
+	 */
+	public static int getWorldStructureSpan() {
+		int span = 0;
+		for (final SchematicWeightItem e : worldSchematics.getEntries())
+			span = Math.max(span, Math.max(e.properties.size.width, e.properties.size.length));
+		return span;
 	}
 
-	public static WeightTable<SchematicWeightItem> getTableForWorldGen(int dimId, BiomeGenBase biome) {
+	/**
+	 * Returns a village selection table. The entries and their properties
+	 * are shared; only the weights are copied, so the caller is free to
+	 * remove entries as their limits are used up.
+	 */
+	public static FenwickWeightTable<SchematicWeightItem> getTableForVillageGen() {
+		return new FenwickWeightTable<SchematicWeightItem>(villageTable);
+	}
 
-		final WeightTable<SchematicWeightItem> table = new WeightTable<SchematicWeightItem>();
-		for (final SchematicWeightItem e : worldSchematics.getEntries()) {
-			final SchematicProperties p = e.properties;
-			if (p.dimensions.isOk(dimId) && p.biomes.isOk(biome.biomeID))
-				try {
-					table.add((SchematicWeightItem) e.clone());
-				} catch (final CloneNotSupportedException e1) {
-					e1.printStackTrace();
+	/**
+	 * Whether any world gen schematic may generate in the dimension,
+	 * whatever the biome.
+	 */
+	public static boolean hasWorldGenFor(final int dimId) {
+		final Integer key = Integer.valueOf(dimId);
+		Boolean result = worldDimensions.get(key);
+		if (result == null) {
+			result = Boolean.FALSE;
+			for (final SchematicWeightItem e : worldSchematics.getEntries())
+				if (e.properties.dimensions.isOk(dimId)) {
+					result = Boolean.TRUE;
+					break;
 				}
+			worldDimensions.put(key, result);
+		}
+		return result.booleanValue();
+	}
+
+	/**
+	 * Returns the world gen table of schematics eligible for the dimension and
+	 * biome. The table is immutable and shared; world gen does not alter the
+	 * entries so they are not cloned.
+	 */
+	public static AliasWeightTable<SchematicWeightItem> getTableForWorldGen(final int dimId,
+			final BiomeGenBase biome) {
+
+		final Long key = Long.valueOf(((long) dimId << 32) | (biome.biomeID & 0xFFFFFFFFL));
+		AliasWeightTable<SchematicWeightItem> table = worldTables.get(key);
+		if (table == null) {
+			final List<SchematicWeightItem> items = new ArrayList<SchematicWeightItem>();
+			for (final SchematicWeightItem e : worldSchematics.getEntries()) {
+				final SchematicProperties p = e.properties;
+				if (p.dimensions.isOk(dimId) && p.biomes.isOk(biome.biomeID))
+					items.add(e);
+			}
+			// Racing threads build equivalent tables so either one can win
+			table = new AliasWeightTable<SchematicWeightItem>(items);
+			worldTables.put(key, table);
 		}
 
 		return table;
@@ -232,6 +280,8 @@ public final class Assets {
 			}
 		}
 
+		villageTable = new FenwickWeightTable<SchematicWeightItem>(villageSchematics.getEntries());
+
 		// Make initial calls to get the lists filled
 		getChestGenerationHooks();
 
@@ -25,18 +25,27 @@
 
 package org.blockartistry.mod.Restructured.assets;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.ZipEntry;
 
 import org.apache.commons.lang3.StringUtils;
+import org.blockartistry.mod.Restructured.schematica.Schematic;
+import org.blockartistry.mod.Restructured.schematica.SchematicCache;
 import org.blockartistry.mod.Restructured.schematica.SchematicFormat;
 import org.blockartistry.mod.Restructured.util.ElementRule;
 import org.blockartistry.mod.Restructured.util.MyUtils;
+import org.blockartistry.mod.Restructured.util.StreamUtils;
 
 import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
 import org.blockartistry.mod.Restructured.util.ElementRule.Rule;
 import org.blockartistry.mod.Restructured.util.JarConfiguration;
 
@@ -203,16 +212,29 @@ public final class ConfigProcessor {
 	}
 
 	/**
-	 * Processes a .schematic file from a Zip file.
+	 * Processes a .schematic file from a Zip file. The configuration is read
+	 * on the calling thread; if a pool is provided the decode of the schematic
+	 * itself is handed off to it. finish() collects the results in the order
+	 * the entries were submitted.
 	 */
 	public static class SchematicsProcess implements Predicate<Object[]> {
 
 		private final Configuration target;
 		private final List<SchematicProperties> schematicList;
+		private final ForkJoinPool pool;
+		private final SchematicCache cache;
+		private final List<ForkJoinTask<SchematicProperties>> pending = new ArrayList<ForkJoinTask<SchematicProperties>>();
 
 		public SchematicsProcess(final Configuration config, final List<SchematicProperties> list) {
+			this(config, list, null, null);
+		}
+
+		public SchematicsProcess(final Configuration config, final List<SchematicProperties> list,
+				final ForkJoinPool pool, final SchematicCache cache) {
 			this.target = config;
 			this.schematicList = list;
+			this.pool = pool;
+			this.cache = cache;
 		}
 
 		@Override
@@ -222,96 +244,225 @@ public final class ConfigProcessor {
 			final String entry = (String) input[1];
 			final InputStream stream = (InputStream) input[2];
 
-			final SchematicProperties props = new SchematicProperties();
-			if(prefix.isEmpty())
-				props.name = entry;
-			else
-				props.name = prefix + "." + entry;
+			// The raw bytes are needed for the cache key, and the stream
+			// belongs to the caller and is closed once we return.
+			final byte[] data;
+			try {
+				data = StreamUtils.toByteArray(stream);
+			} catch (final Exception ex) {
+				ex.printStackTrace();
+				return true;
+			} finally {
+				try {
+					stream.close();
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
 
-			final String category = CONFIG_STRUCTURES + "." + props.name;
+			submit(prefix, entry, new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return data;
+				}
+			});
 
-			props.villageWeight = target.getInt(OPTION_VILLAGE_WEIGHT, category, DEFAULT_VILLAGE_WEIGHT, 0,
-					Integer.MAX_VALUE, "Relative selection weight for village structure generation");
+			return true;
+		}
 
-			props.worldWeight = target.getInt(OPTION_WORLD_WEIGHT, category, DEFAULT_WORLD_WEIGHT, 0, Integer.MAX_VALUE,
-					"Relative selection weight for world generation");
+		/**
+		 * Queues a schematic whose bytes are obtained from the source. The
+		 * configuration is read on the calling thread; the source is invoked
+		 * on the worker along with the decode so entry inflation runs in
+		 * parallel as well.
+		 */
+		public void submit(final String prefix, final String entry, final Callable<byte[]> source) {
 
-			props.villagerCount = target.getInt(OPTION_VILLAGER_COUNT, category, DEFAULT_VILLAGER_COUNT, -1,
-					Integer.MAX_VALUE, "Number of villagers to spawn for the structure (-1 random)");
+			final SchematicProperties props = readProperties(this.target, prefix, entry);
 
-			props.villagerProfession = target.getInt(OPTION_VILLAGER_PROFESSION, category, DEFAULT_VILLAGER_PROFESSION,
-					-1, 4, "Villager profession: -1 random, 0 farmer, 1 librarian, 2 priest, 3 smith, 4 butcher");
+			if (this.pool == null) {
+				if (load(props, source, this.cache))
+					schematicList.add(props);
+				return;
+			}
 
-			props.limit = target.getInt(OPTION_LIMIT, category, DEFAULT_LIMIT, 0, Integer.MAX_VALUE,
-					"Maximum number of this type of structure to have in a village");
+			this.pending.add(this.pool.submit(new Callable<SchematicProperties>() {
+				@Override
+				public SchematicProperties call() throws Exception {
+					return load(props, source, cache) ? props : null;
+				}
+			}));
+		}
 
-			props.groundOffset = target.getInt(OPTION_OFFSET, category, DEFAULT_OFFSET, 0, Integer.MAX_VALUE,
-					"The number of blocks below ground the structure extends");
+		private static boolean load(final SchematicProperties props, final Callable<byte[]> source,
+				final SchematicCache cache) {
+			final byte[] data;
+			try {
+				data = source.call();
+			} catch (final Exception ex) {
+				ex.printStackTrace();
+				return false;
+			}
+			return decode(props, data, cache);
+		}
 
-			props.chestContents = target.getString(OPTION_CHEST_CONTENTS, category, DEFAULT_CHEST_CONTENTS,
-					"What chest generation hook to use when filling chests");
-			
-			// Possible if using SCHEMATICS without ZIPs.  Can occur
-			// if the player is building a schematic pack.
-			if(props.chestContents.startsWith("^"))
-				props.chestContents = StringUtils.removeStart(props.chestContents, "^");
+		/**
+		 * Waits for outstanding decodes and adds the results to the list in
+		 * submission order.
+		 */
+		public void finish() {
+			for (final ForkJoinTask<SchematicProperties> task : this.pending) {
+				try {
+					final SchematicProperties props = task.join();
+					if (props != null)
+						schematicList.add(props);
+				} catch (final Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+			this.pending.clear();
+		}
+	}
 
-			props.chestContentsCount = target.getInt(OPTION_CHEST_CONTENTS_COUNT, category,
-					DEFAULT_CHEST_CONTENTS_COUNT, 0, Integer.MAX_VALUE,
-					"The number of stacks to pull from the generation table");
+	private static SchematicProperties readProperties(final Configuration target, final String prefix,
+			final String entry) {
 
-			props.spawnerEnableChance = target.getInt(OPTION_SPAWNER_ENABLE_CHANCE, category,
-					DEFAULT_SPAWNER_ENABLE_CHANCE, 0, 100, "Chance that a spawner will be preserved when placed");
+		final SchematicProperties props = new SchematicProperties();
+		if (prefix.isEmpty())
+			props.name = entry;
+		else
+			props.name = prefix + "." + entry;
 
-			boolean asBlackList = target.getBoolean(OPTION_BIOME_LIST_TYPE, category, DEFAULT_BIOME_LIST_TYPE,
-					"Treat the biome list as a blacklist vs. whitelist");
-			String def = StringUtils.join(DEFAULT_BIOME_LIST, ';');
-			String list = target.getString(OPTION_BIOME_LIST, category, def, "List of biome IDs");
+		final String category = CONFIG_STRUCTURES + "." + props.name;
 
-			try {
-				props.biomes = new ElementRule(asBlackList ? Rule.MUST_NOT_BE_IN : Rule.MUST_BE_IN,
-						MyUtils.splitToInts(list, ';'));
-			} catch (Exception e1) {
-				e1.printStackTrace();
-			}
+		props.villageWeight = target.getInt(OPTION_VILLAGE_WEIGHT, category, DEFAULT_VILLAGE_WEIGHT, 0,
+				Integer.MAX_VALUE, "Relative selection weight for village structure generation");
 
-			asBlackList = target.getBoolean(OPTION_DIMENSION_LIST_TYPE, category, DEFAULT_DIMENSION_LIST_TYPE,
-					"Treat the dimension list as a blacklist vs. whitelist");
-			def = StringUtils.join(DEFAULT_DIMENSION_LIST, ';');
-			list = target.getString(OPTION_DIMENSION_LIST, category, def, "List of dimension IDs");
+		props.worldWeight = target.getInt(OPTION_WORLD_WEIGHT, category, DEFAULT_WORLD_WEIGHT, 0, Integer.MAX_VALUE,
+				"Relative selection weight for world generation");
 
-			String options = target.getString(OPTION_OPTIONS, category, DEFAULT_OPTIONS, "Options for generation");
-			props.suppressFire = options.contains(OPTION_OPTIONS_SUPPRESS_FIRE);
-			props.suppressMonsterEgg = options.contains(OPTION_OPTIONS_SUPPRESS_EGGS);
+		props.villagerCount = target.getInt(OPTION_VILLAGER_COUNT, category, DEFAULT_VILLAGER_COUNT, -1,
+				Integer.MAX_VALUE, "Number of villagers to spawn for the structure (-1 random)");
 
-			try {
-				props.dimensions = new ElementRule(asBlackList ? Rule.MUST_NOT_BE_IN : Rule.MUST_BE_IN,
-						MyUtils.splitToInts(list, ';'));
-			} catch (Exception e1) {
-				e1.printStackTrace();
-			}
+		props.villagerProfession = target.getInt(OPTION_VILLAGER_PROFESSION, category, DEFAULT_VILLAGER_PROFESSION,
+				-1, 4, "Villager profession: -1 random, 0 farmer, 1 librarian, 2 priest, 3 smith, 4 butcher");
 
-			try {
-				props.schematic = SchematicFormat.readFromStream(stream);
-			} catch (final Exception ex) {
-				ex.printStackTrace();
-			} finally {
-				try {
-					stream.close();
-				} catch (final IOException e) {
-					e.printStackTrace();
+		props.limit = target.getInt(OPTION_LIMIT, category, DEFAULT_LIMIT, 0, Integer.MAX_VALUE,
+				"Maximum number of this type of structure to have in a village");
+
+		props.groundOffset = target.getInt(OPTION_OFFSET, category, DEFAULT_OFFSET, 0, Integer.MAX_VALUE,
+				"The number of blocks below ground the structure extends");
+
+		props.chestContents = target.getString(OPTION_CHEST_CONTENTS, category, DEFAULT_CHEST_CONTENTS,
+				"What chest generation hook to use when filling chests");
+
+		// Possible if using SCHEMATICS without ZIPs.  Can occur
+		// if the player is building a schematic pack.
+		if (props.chestContents.startsWith("^"))
+			props.chestContents = StringUtils.removeStart(props.chestContents, "^");
+
+		props.chestContentsCount = target.getInt(OPTION_CHEST_CONTENTS_COUNT, category,
+				DEFAULT_CHEST_CONTENTS_COUNT, 0, Integer.MAX_VALUE,
+				"The number of stacks to pull from the generation table");
+
+		props.spawnerEnableChance = target.getInt(OPTION_SPAWNER_ENABLE_CHANCE, category,
+				DEFAULT_SPAWNER_ENABLE_CHANCE, 0, 100, "Chance that a spawner will be preserved when placed");
+
+		boolean asBlackList = target.getBoolean(OPTION_BIOME_LIST_TYPE, category, DEFAULT_BIOME_LIST_TYPE,
+				"Treat the biome list as a blacklist vs. whitelist");
+		String def = StringUtils.join(DEFAULT_BIOME_LIST, ';');
+		String list = target.getString(OPTION_BIOME_LIST, category, def, "List of biome IDs");
+
+		try {
+			props.biomes = new ElementRule(asBlackList ? Rule.MUST_NOT_BE_IN : Rule.MUST_BE_IN,
+					MyUtils.splitToInts(list, ';'));
+		} catch (Exception e1) {
+			e1.printStackTrace();
+		}
+
+		asBlackList = target.getBoolean(OPTION_DIMENSION_LIST_TYPE, category, DEFAULT_DIMENSION_LIST_TYPE,
+				"Treat the dimension list as a blacklist vs. whitelist");
+		def = StringUtils.join(DEFAULT_DIMENSION_LIST, ';');
+		list = target.getString(OPTION_DIMENSION_LIST, category, def, "List of dimension IDs");
+
+		String options = target.getString(OPTION_OPTIONS, category, DEFAULT_OPTIONS, "Options for generation");
+		props.suppressFire = options.contains(OPTION_OPTIONS_SUPPRESS_FIRE);
+		props.suppressMonsterEgg = options.contains(OPTION_OPTIONS_SUPPRESS_EGGS);
+
+		try {
+			props.dimensions = new ElementRule(asBlackList ? Rule.MUST_NOT_BE_IN : Rule.MUST_BE_IN,
+					MyUtils.splitToInts(list, ';'));
+		} catch (Exception e1) {
+			e1.printStackTrace();
+		}
+
+		return props;
+	}
+
+	// Safe to call from worker threads - only touches the properties
+	// instance and its own cache entry.
+	private static boolean decode(final SchematicProperties props, final byte[] data, final SchematicCache cache) {
+
+		// A cache hit is already scrubbed so it can be used as is
+		final String key = cache == null ? null
+				: SchematicCache.getKey(data, props.suppressFire, props.suppressMonsterEgg);
+
+		Schematic schematic = null;
+		if (key != null)
+			schematic = cache.load(key);
+
+		boolean cached = schematic != null;
+		if (schematic == null) {
+			schematic = decodeSchematic(data, props.suppressFire, props.suppressMonsterEgg);
+			if (schematic != null && key != null)
+				cached = cache.save(key, schematic);
+		}
+
+		if (schematic == null)
+			return false;
+
+		// Only the header stays with the properties. The body is reloaded
+		// from the disk cache if possible, otherwise re-decoded from the
+		// compressed schematic bytes which are much smaller than the body.
+		props.size = schematic.getDimensions();
+		if (cached) {
+			props.body = new SchematicBody(props.name, new Supplier<Schematic>() {
+				@Override
+				public Schematic get() {
+					return cache.load(key);
 				}
-			}
+			});
+		} else {
+			final boolean suppressFire = props.suppressFire;
+			final boolean suppressEggs = props.suppressMonsterEgg;
+			props.body = new SchematicBody(props.name, new Supplier<Schematic>() {
+				@Override
+				public Schematic get() {
+					return decodeSchematic(data, suppressFire, suppressEggs);
+				}
+			});
+		}
+		props.body.set(schematic);
 
-			if (props.schematic != null) {
-				if(props.suppressMonsterEgg)
-					props.schematic.scrubEggs();
-				if(props.suppressFire)
-					props.schematic.scrubFireSources();
-				schematicList.add(props);
-			}
+		return true;
+	}
 
-			return true;
+	private static Schematic decodeSchematic(final byte[] data, final boolean suppressFire,
+			final boolean suppressEggs) {
+		Schematic schematic = null;
+		try {
+			schematic = SchematicFormat.readFromStream(new ByteArrayInputStream(data));
+		} catch (final Exception ex) {
+			ex.printStackTrace();
+		}
+
+		if (schematic != null) {
+			if (suppressEggs)
+				schematic.scrubEggs();
+			if (suppressFire)
+				schematic.scrubFireSources();
 		}
+
+		return schematic;
 	}
 }
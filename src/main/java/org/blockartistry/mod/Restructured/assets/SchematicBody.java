@@ -0,0 +1,142 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.blockartistry.mod.Restructured.assets;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.blockartistry.mod.Restructured.ModLog;
+import org.blockartistry.mod.Restructured.ModOptions;
+import org.blockartistry.mod.Restructured.schematica.Schematic;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Handle to the voxel body of a schematic. The body is decoded on demand by
+ * the loader and held in a process wide LRU that is bounded by the configured
+ * memory ceiling. Bodies that have not been used recently are dropped and
+ * reloaded the next time they are needed.
+ */
+public final class SchematicBody {
+
+	private static final long MEGABYTE = 1024L * 1024L;
+
+	// Access ordered so iteration starts at the least recently used
+	private static final Map<SchematicBody, Schematic> resident = new LinkedHashMap<SchematicBody, Schematic>(16,
+			0.75F, true);
+	private static long residentSize = 0;
+
+	private final String name;
+	private final Supplier<Schematic> loader;
+	private long size;
+
+	public SchematicBody(final String name, final Supplier<Schematic> loader) {
+		this.name = name;
+		this.loader = loader;
+	}
+
+	private static long getCeiling() {
+		return ModOptions.getSchematicMemoryCeiling() * MEGABYTE;
+	}
+
+	/**
+	 * Obtains the body, loading it if it is not resident. Returns null if the
+	 * body could not be loaded.
+	 *
+	 * Decoding is done outside of the lock so one large body does not hold up
+	 * the others. If two threads miss on the same body at once both decode,
+	 * and whichever finishes second uses the copy that was admitted first.
+	 */
+	public Schematic get() {
+		synchronized (resident) {
+			final Schematic schematic = resident.get(this);
+			if (schematic != null) {
+				recharge(schematic);
+				return schematic;
+			}
+		}
+
+		ModLog.debug("Loading schematic body [%s]", this.name);
+		final Schematic loaded = this.loader.get();
+		if (loaded == null)
+			return null;
+
+		synchronized (resident) {
+			final Schematic schematic = resident.get(this);
+			if (schematic != null)
+				return schematic;
+			admit(loaded);
+			return loaded;
+		}
+	}
+
+	/**
+	 * Seeds the cache with an already decoded body, such as at startup.
+	 */
+	public void set(final Schematic schematic) {
+		synchronized (resident) {
+			final Schematic old = resident.remove(this);
+			if (old != null)
+				residentSize -= this.size;
+			admit(schematic);
+		}
+	}
+
+	private void admit(final Schematic schematic) {
+		this.size = schematic.getEstimatedSize();
+		resident.put(this, schematic);
+		residentSize += this.size;
+		trim(this);
+	}
+
+	// Placement plans built since the body was admitted add to its size
+	private void recharge(final Schematic schematic) {
+		final long current = schematic.getEstimatedSize();
+		if (current != this.size) {
+			residentSize += current - this.size;
+			this.size = current;
+			trim(this);
+		}
+	}
+
+	// Evict least recently used bodies until under the ceiling. The body
+	// just admitted is always kept so the caller gets something back.
+	private static void trim(final SchematicBody keep) {
+		final long ceiling = getCeiling();
+		if (ceiling <= 0)
+			return;
+
+		final Iterator<SchematicBody> itr = resident.keySet().iterator();
+		while (residentSize > ceiling && itr.hasNext()) {
+			final SchematicBody body = itr.next();
+			if (body == keep)
+				continue;
+			itr.remove();
+			residentSize -= body.size;
+			ModLog.debug("Evicted schematic body [%s]", body.name);
+		}
+	}
+}
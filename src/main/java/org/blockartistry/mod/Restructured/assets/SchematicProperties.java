@@ -33,6 +33,7 @@ import net.minecraft.init.Blocks;
 import net.minecraft.util.BlockPos;
 
 import org.blockartistry.mod.Restructured.schematica.Schematic;
+import org.blockartistry.mod.Restructured.util.Dimensions;
 import org.blockartistry.mod.Restructured.util.ElementRule;
 
 public final class SchematicProperties implements Cloneable {
@@ -42,7 +43,8 @@ public final class SchematicProperties implements Cloneable {
 	public int worldWeight;
 	public int limit;
 	public int groundOffset;
-	public Schematic schematic;
+	public Dimensions size;
+	public SchematicBody body;
 	public boolean suppressFire;
 	public boolean suppressMonsterEgg;
 	public int villagerCount;
@@ -57,9 +59,21 @@ public final class SchematicProperties implements Cloneable {
 		super();
 	}
 
+	/**
+	 * The voxel body of the schematic. May be loaded on demand so callers
+	 * should hold the reference for the duration of an operation rather than
+	 * calling repeatedly.
+	 */
+	public Schematic getSchematic() {
+		return this.body == null ? null : this.body.get();
+	}
+
 	public Map<Block, Integer> analyze() {
 
 		final HashMap<Block, Integer> result = new HashMap<Block, Integer>();
+		final Schematic schematic = getSchematic();
+		if (schematic == null)
+			return result;
 
 		final int upperX = schematic.getWidth();
 		final int upperY = schematic.getHeight();
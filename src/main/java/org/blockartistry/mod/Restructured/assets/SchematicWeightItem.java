@@ -30,7 +30,7 @@ import org.blockartistry.mod.Restructured.util.WeightTable;
 
 public class SchematicWeightItem extends WeightTable.Item {
 
-	public SchematicProperties properties;
+	public final SchematicProperties properties;
 
 	public SchematicWeightItem(final SchematicProperties properties, final boolean asVillage) {
 		super(asVillage ? properties.villageWeight : properties.worldWeight);
@@ -38,11 +38,4 @@ public class SchematicWeightItem extends WeightTable.Item {
 		this.properties = properties;
 	}
 
-	@Override
-	public Object clone() throws CloneNotSupportedException {
-		final SchematicWeightItem item = (SchematicWeightItem) super.clone();
-		item.properties = (SchematicProperties) this.properties.clone();
-		return item;
-	}
-
 }
@@ -28,13 +28,20 @@ package org.blockartistry.mod.Restructured.assets;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import org.apache.commons.lang3.StringUtils;
+import org.blockartistry.mod.Restructured.ModOptions;
+import org.blockartistry.mod.Restructured.schematica.SchematicCache;
+import org.blockartistry.mod.Restructured.util.StreamUtils;
 
 import com.google.common.base.Predicate;
 
@@ -42,6 +49,8 @@ import net.minecraftforge.common.config.Configuration;
 
 public final class ZipProcessor {
 
+	private static final String CACHE_DIRECTORY = "cache";
+
 	private ZipProcessor() {
 	}
 
@@ -63,28 +72,82 @@ public final class ZipProcessor {
 		});		
 	}
 	
-	private static void traverseZips(final File path, final Predicate<ZipEntry> test,
-			final Predicate<Object[]> process) {
+	private static String getPrefix(final File file) {
+		return StringUtils.removeEnd(file.getName(), ".zip").toLowerCase().replaceAll("[-.]", "_");
+	}
+
+	/**
+	 * Inflates a zip entry. The zip has to stay open until the read is
+	 * complete; ZipFile is safe to read from multiple threads.
+	 */
+	private static class EntryReader implements Callable<byte[]> {
+
+		private final ZipFile zip;
+		private final ZipEntry entry;
 
+		public EntryReader(final ZipFile zip, final ZipEntry entry) {
+			this.zip = zip;
+			this.entry = entry;
+		}
+
+		@Override
+		public byte[] call() throws Exception {
+			final InputStream stream = this.zip.getInputStream(this.entry);
+			try {
+				return StreamUtils.toByteArray(stream);
+			} finally {
+				stream.close();
+			}
+		}
+	}
+
+	/**
+	 * Walks each zip once. Config entries are merged as they are found;
+	 * schematic entries are collected and handed back so they can be
+	 * processed once every config has been merged. The zips that were
+	 * opened are added to the list and have to be closed by the caller.
+	 */
+	private static List<Object[]> traverseZips(final File path, final List<ZipFile> opened,
+			final Predicate<Object[]> chestsConfig, final Predicate<Object[]> schematicsConfig) {
+
+		final Predicate<ZipEntry> chestsFilter = new ConfigProcessor.ChestsConfigFilter();
+		final Predicate<ZipEntry> schematicsFilter = new ConfigProcessor.SchematicsConfigFilter();
+		final Predicate<ZipEntry> schematicFilter = new ConfigProcessor.SchematicFilter();
+
+		final List<Object[]> schematics = new ArrayList<Object[]>();
 		for (final File file : getZipFiles(path)) {
 			try {
 				final ZipFile zip = new ZipFile(file);
-				final String prefix = StringUtils.removeEnd(file.getName(), ".zip").toLowerCase().replaceAll("[-.]", "_");
-				Enumeration<? extends ZipEntry> entries = zip.entries();
+				opened.add(zip);
+				final String prefix = getPrefix(file);
+				final Enumeration<? extends ZipEntry> entries = zip.entries();
 				while (entries.hasMoreElements()) {
 					final ZipEntry entry = entries.nextElement();
-					if (test.apply(entry)) {
-						final InputStream stream = zip.getInputStream(entry);
+					if (schematicFilter.apply(entry)) {
 						final String name = StringUtils.removeEnd(entry.getName(), ".schematic");
-						process.apply(new Object[] { prefix, name, stream });
-						stream.close();
+						schematics.add(new Object[] { prefix, name, new EntryReader(zip, entry) });
+					} else if (chestsFilter.apply(entry)) {
+						process(zip, entry, prefix, chestsConfig);
+					} else if (schematicsFilter.apply(entry)) {
+						process(zip, entry, prefix, schematicsConfig);
 					}
 				}
-				zip.close();
 			} catch (final Exception ex) {
 				ex.printStackTrace();
 			}
 		}
+
+		return schematics;
+	}
+
+	private static void process(final ZipFile zip, final ZipEntry entry, final String prefix,
+			final Predicate<Object[]> process) throws Exception {
+		final InputStream stream = zip.getInputStream(entry);
+		try {
+			process.apply(new Object[] { prefix, entry.getName(), stream });
+		} finally {
+			stream.close();
+		}
 	}
 
 	private static void traverseSchematics(final File path,
@@ -108,13 +171,38 @@ public final class ZipProcessor {
 	 */
 	public static void initialize(final File path, final Configuration schematics, final Configuration chests,
 			final List<SchematicProperties> props) {
-		traverseZips(path, new ConfigProcessor.ChestsConfigFilter(), new ConfigProcessor.ChestsConfigProcess(chests));
-		traverseZips(path, new ConfigProcessor.SchematicsConfigFilter(),
+		// Config merging has to be complete before any schematic properties
+		// are read, so the schematic entries are only collected during the
+		// walk. The inflate and decode of each schematic can then run in
+		// parallel; the process collects the results back in traversal
+		// order so the list is deterministic.
+		final List<ZipFile> opened = new ArrayList<ZipFile>();
+		final List<Object[]> entries = traverseZips(path, opened, new ConfigProcessor.ChestsConfigProcess(chests),
 				new ConfigProcessor.SchematicsConfigProcess(schematics));
-		traverseZips(path, new ConfigProcessor.SchematicFilter(),
-				new ConfigProcessor.SchematicsProcess(schematics, props));
-		
-		traverseSchematics(path, new ConfigProcessor.SchematicsProcess(schematics, props));
+
+		final ForkJoinPool pool = ModOptions.getParallelSchematicLoading() ? new ForkJoinPool() : null;
+		final SchematicCache cache = ModOptions.getEnableSchematicCache()
+				? new SchematicCache(new File(path, CACHE_DIRECTORY)) : null;
+		try {
+			final ConfigProcessor.SchematicsProcess process = new ConfigProcessor.SchematicsProcess(schematics, props,
+					pool, cache);
+			for (final Object[] entry : entries)
+				process.submit((String) entry[0], (String) entry[1], (EntryReader) entry[2]);
+			traverseSchematics(path, process);
+			process.finish();
+
+			if (cache != null)
+				cache.prune();
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+			for (final ZipFile zip : opened)
+				try {
+					zip.close();
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+		}
 	}
 	
 	public static boolean areZipsPresent(final File path) {
@@ -32,6 +32,7 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityHanging;
 import net.minecraft.inventory.IInventory;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.BlockPos;
 import net.minecraft.util.EnumFacing;
@@ -42,130 +43,344 @@ import net.minecraftforge.common.ChestGenHooks;
 
 import org.apache.commons.lang3.StringUtils;
 import org.blockartistry.mod.Restructured.ModLog;
+import org.blockartistry.mod.Restructured.ModOptions;
 import org.blockartistry.mod.Restructured.assets.SchematicProperties;
 import org.blockartistry.mod.Restructured.schematica.Schematic;
 import org.blockartistry.mod.Restructured.schematica.Schematic.SchematicEntity;
 import org.blockartistry.mod.Restructured.schematica.Schematic.SchematicTileEntity;
 import org.blockartistry.mod.Restructured.util.BlockHelper;
-import org.blockartistry.mod.Restructured.util.Dimensions;
+import org.blockartistry.mod.Restructured.util.RotationTable;
+import org.blockartistry.mod.Restructured.world.BulkBlockWriter;
 
 public class CopyStructureBuilder {
 
 	protected static final Random rand = new Random();
 
+	protected static final int PHASE_BLOCKS = 0;
+	protected static final int PHASE_ATTACHED = 1;
+	protected static final int PHASE_TILE_ENTITIES = 2;
+	protected static final int PHASE_ENTITIES = 3;
+	protected static final int PHASE_DONE = 4;
+
+	// Check the clock every 256 steps
+	private static final int DEADLINE_CHECK_MASK = 0xFF;
+
+	private static final String NBT_PHASE = "phase";
+	private static final String NBT_CURSOR = "cursor";
+	private static final String NBT_SKIPPED = "skipped";
+
 	protected final IStructureBuilder structure;
 	protected final World world;
 	protected final StructureBoundingBox box;
 	protected final EnumFacing orientation;
 	protected final SchematicProperties properties;
 
-	protected final Set<BlockPos> waitToPlace = new HashSet<BlockPos>();
 	protected final Set<BlockPos> blockList = new HashSet<BlockPos>();
 
+	// Build progress: which pass is running and the position within it
+	protected int phase = PHASE_BLOCKS;
+	protected int cursor = 0;
+
+	// Null when placing one block at a time
+	protected final BulkBlockWriter writer;
+
+	// The rotated palette of the plan as it will be placed by the
+	// structure, worked out once per build rather than per block
+	private IBlockState[] placementPalette;
+
 	public CopyStructureBuilder(final World world, final StructureBoundingBox box, final EnumFacing direction,
 			final SchematicProperties properties, final IStructureBuilder structure) {
+		this(world, box, direction, properties, structure,
+				ModOptions.getBulkPlacement() ? new BulkBlockWriter(world) : null);
+	}
+
+	/**
+	 * Builds using a writer supplied by the caller, for example one that was
+	 * also used to prepare the terrain. generate() finishes the writer so
+	 * lighting for the whole build is done in one pass at the end.
+	 */
+	public CopyStructureBuilder(final World world, final StructureBoundingBox box, final EnumFacing direction,
+			final SchematicProperties properties, final IStructureBuilder structure, final BulkBlockWriter writer) {
 
 		this.world = world;
 		this.box = box;
 		this.orientation = direction;
 		this.structure = structure;
 		this.properties = properties;
+		this.writer = writer;
 	}
 
 	public void place(final IBlockState state, final BlockPos pos) {
 		this.structure.placeBlock(this.world, handleRotation(state), pos, this.box);
 	}
 
+	protected boolean canPlaceInBulk(final long flags) {
+		// Liquids need onBlockAdded() to schedule their flow
+		return (flags & BlockHelper.LIQUID) == 0;
+	}
+
 	public boolean isVecInside(final BlockPos pos, final StructureBoundingBox box) {
 		return this.structure.isVecInside(pos, box);
 	}
 
 	public void generate() {
+		step(Integer.MAX_VALUE, 0);
+	}
 
-		final Schematic schematic = this.properties.schematic;
-		final Dimensions size = this.structure.getDimensions();
+	public boolean isComplete() {
+		return this.phase == PHASE_DONE;
+	}
 
-		// Scan from the ground up. This is important when
-		// replacing crops.
-		for (int y = 0; y < size.height; y++)
-			for (int x = 0; x < size.width; x++)
-				for (int z = 0; z < size.length; z++) {
+	/**
+	 * Runs the build until it completes or a budget runs out. The block
+	 * budget is the number of schematic cells, tile entities and entities
+	 * processed; the deadline is a System.nanoTime() value, 0 for none.
+	 * Blocks written so far are in the world when this returns, so the build
+	 * can be persisted and resumed later. Lighting for bulk written blocks is
+	 * done once, when the build completes.
+	 * 
+	 * @return true if the build is complete
+	 */
+	public boolean step(final int blockBudget, final long deadline) {
+
+		if (this.phase == PHASE_DONE)
+			return true;
 
-					final BlockPos v = new BlockPos(x, y, z);
-					if (isVecInside(v, this.box)) {
+		final Schematic schematic = this.properties.getSchematic();
+		if (schematic == null) {
+			ModLog.warn("Unable to obtain schematic [%s]", this.properties.name);
+			// Still write out anything the caller prepared
+			if (this.writer != null)
+				this.writer.finish();
+			this.phase = PHASE_DONE;
+			return true;
+		}
 
-						final IBlockState state = schematic.getBlockState(v);
+		final PlacementPlan plan = PlacementPlan.get(schematic, this.orientation, this);
+		if (this.placementPalette == null) {
+			final IBlockState[] palette = plan.getPalette();
+			this.placementPalette = new IBlockState[palette.length];
+			for (int i = 0; i < palette.length; i++)
+				this.placementPalette[i] = this.structure.getPlacementState(palette[i]);
+		}
 
-						// Do we skip placement?
-						if (doSkipSpawnerPlacement(state, v))
-							continue;
+		// Only the cells inside the build box are visited, so a build clipped
+		// to one chunk does not walk the whole schematic
+		final int[] range = getRange(plan);
+
+		int budget = blockBudget;
+		while (this.phase != PHASE_DONE && budget-- > 0) {
+
+			if (deadline != 0 && (budget & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() > deadline)
+				break;
+
+			switch (this.phase) {
+			case PHASE_BLOCKS:
+				if (this.cursor == 0)
+					this.cursor = range == null ? plan.size() : plan.getFirst(range);
+				if (this.cursor < plan.size()) {
+					placeMain(schematic, plan, this.cursor);
+					this.cursor = plan.getNext(this.cursor, range);
+				} else {
+					// Attached blocks are placed after the bulk pass so the
+					// blocks they hang on are in the world
+					if (this.writer != null)
+						this.writer.flush();
+					nextPhase();
+				}
+				break;
+
+			case PHASE_ATTACHED:
+				if (this.cursor < plan.getDeferred().length) {
+					placeAttached(schematic, plan, plan.getDeferred()[this.cursor]);
+					this.cursor++;
+				} else {
+					nextPhase();
+				}
+				break;
+
+			case PHASE_TILE_ENTITIES:
+				if (this.cursor < schematic.getTileEntities().size()) {
+					placeTileEntity(schematic, schematic.getTileEntities().get(this.cursor));
+					this.cursor++;
+				} else {
+					// Relight everything the build touched in one sweep
+					if (this.writer != null)
+						this.writer.finish();
+					nextPhase();
+				}
+				break;
+
+			case PHASE_ENTITIES:
+				if (this.cursor < schematic.getEntities().size()) {
+					placeEntity(schematic.getEntities().get(this.cursor));
+					this.cursor++;
+				} else {
+					nextPhase();
+				}
+				break;
 
-						// Delay placing things that don't like being
-						// rotated or attached to blocks that change
-						if (waitToPlace(state)) {
-							this.waitToPlace.add(v);
-							continue;
-						}
+			default:
+				this.phase = PHASE_DONE;
+			}
+		}
 
-						place(state, v);
-					}
-				}
+		// Out of budget - write out what was done so far. The relight waits
+		// for the end of the build so it is not charged to every tick.
+		if (this.phase != PHASE_DONE && this.writer != null)
+			this.writer.flush();
+
+		return this.phase == PHASE_DONE;
+	}
+
+	private void nextPhase() {
+		this.phase++;
+		this.cursor = 0;
+	}
+
+	// World coordinates of a plan entry. A null orientation places at the
+	// schematic coordinates as is.
+	private int worldX(final PlacementPlan plan, final int entry) {
+		return (this.orientation == null ? 0 : this.structure.getBoundingBox().minX) + plan.getOffsetX(entry);
+	}
+
+	private int worldY(final PlacementPlan plan, final int entry) {
+		return (this.orientation == null ? 0 : this.structure.getBoundingBox().minY) + plan.getOffsetY(entry);
+	}
 
-		for (final BlockPos v : this.waitToPlace) {
-			final IBlockState state = schematic.getBlockState(v);
-			place(state, v);
+	private int worldZ(final PlacementPlan plan, final int entry) {
+		return (this.orientation == null ? 0 : this.structure.getBoundingBox().minZ) + plan.getOffsetZ(entry);
+	}
+
+	private int[] getRange(final PlacementPlan plan) {
+		final StructureBoundingBox bb = this.structure.getBoundingBox();
+		final int x = this.orientation == null ? 0 : bb.minX;
+		final int y = this.orientation == null ? 0 : bb.minY;
+		final int z = this.orientation == null ? 0 : bb.minZ;
+		return plan.getLocalRange(this.box.minX - x, this.box.maxX - x, this.box.minY - y, this.box.maxY - y,
+				this.box.minZ - z, this.box.maxZ - z);
+	}
+
+	private boolean isEntryInside(final PlacementPlan plan, final int entry) {
+		final int x = worldX(plan, entry);
+		final int y = worldY(plan, entry);
+		final int z = worldZ(plan, entry);
+		return x >= this.box.minX && x <= this.box.maxX && y >= this.box.minY && y <= this.box.maxY
+				&& z >= this.box.minZ && z <= this.box.maxZ;
+	}
+
+	protected void placeMain(final Schematic schematic, final PlacementPlan plan, final int entry) {
+		if (!isEntryInside(plan, entry))
+			return;
+
+		final int index = plan.getPaletteIndex(schematic, entry);
+		final int flags = plan.getPaletteFlags(index);
+
+		// Delay placing things that don't like being
+		// rotated or attached to blocks that change
+		if ((flags & PlacementPlan.FLAG_DEFERRED) != 0)
+			return;
+
+		// Do we skip placement?
+		if ((flags & PlacementPlan.FLAG_SPAWNER) != 0
+				&& rand.nextInt(100) >= this.properties.spawnerEnableChance) {
+			this.blockList.add(plan.getLocal(entry));
+			return;
 		}
 
-		for (final SchematicTileEntity e : schematic.getTileEntities()) {
-			final BlockPos coords = e.coords;
-			if (!isVecInside(coords, this.box))
-				continue;
-
-			// If the block location is black listed we don't want
-			// to create the tile entity at the location
-			if (this.blockList.contains(coords))
-				continue;
-
-			try {
-				final TileEntity entity = (TileEntity) e.getInstance(world);
-				entity.validate();
-
-				// Place it into the world
-				final BlockPos worldCoord = this.structure.getWorldCoordinates(coords);
-				this.world.removeTileEntity(worldCoord);
-				this.world.setTileEntity(worldCoord, entity);
-
-				final IBlockState state = schematic.getBlockState(coords);
-				if (doFillChestContents(state)) {
-					generateChestContents((IInventory) entity, this.properties.chestContents,
-							this.properties.chestContentsCount);
-				}
+		if (this.writer == null || (flags & PlacementPlan.FLAG_BULK) == 0) {
+			this.structure.placeBlock(this.world, plan.getPalette()[index], plan.getLocal(entry), this.box);
+			return;
+		}
+
+		this.writer.setBlockState(new BlockPos(worldX(plan, entry), worldY(plan, entry), worldZ(plan, entry)),
+				this.placementPalette[index]);
+	}
 
-			} catch (Exception ex) {
-				ModLog.warn("Unable to place TileEntity");
-				ex.printStackTrace();
+	protected void placeAttached(final Schematic schematic, final PlacementPlan plan, final int entry) {
+		if (isEntryInside(plan, entry))
+			this.structure.placeBlock(this.world, plan.getState(schematic, entry), plan.getLocal(entry), this.box);
+	}
+
+	protected void placeTileEntity(final Schematic schematic, final SchematicTileEntity e) {
+		final BlockPos coords = e.coords;
+		if (!isVecInside(coords, this.box))
+			return;
+
+		// If the block location is black listed we don't want
+		// to create the tile entity at the location
+		if (this.blockList.contains(coords))
+			return;
+
+		try {
+			final TileEntity entity = (TileEntity) e.getInstance(world);
+			entity.validate();
+
+			// Place it into the world
+			final BlockPos worldCoord = this.structure.getWorldCoordinates(coords);
+			this.world.removeTileEntity(worldCoord);
+			this.world.setTileEntity(worldCoord, entity);
+
+			final IBlockState state = schematic.getBlockState(coords);
+			if (doFillChestContents(state)) {
+				generateChestContents((IInventory) entity, this.properties.chestContents,
+						this.properties.chestContentsCount);
 			}
+
+		} catch (Exception ex) {
+			ModLog.warn("Unable to place TileEntity");
+			ex.printStackTrace();
 		}
+	}
 
-		for (final SchematicEntity e : schematic.getEntities()) {
-			if (!isVecInside(e.coords, this.box))
-				continue;
+	protected void placeEntity(final SchematicEntity e) {
+		if (!isVecInside(e.coords, this.box))
+			return;
 
-			try {
-				final Entity entity = (Entity) e.getInstance(this.world);
-				final BlockPos coord = this.structure.getWorldCoordinates(e.coords);
-				entity.setPosition(coord.getX(), coord.getY(), coord.getZ());
+		try {
+			final Entity entity = (Entity) e.getInstance(this.world);
+			final BlockPos coord = this.structure.getWorldCoordinates(e.coords);
+			entity.setPosition(coord.getX(), coord.getY(), coord.getZ());
 
-				if (entity instanceof EntityHanging) {
-					final EntityHanging howsIt = (EntityHanging) entity;
-					howsIt.updateFacingWithBoundingBox(translateDirection(howsIt.facingDirection));
-					// ModLog.info(entity.getName() + " " + coord.toString());
-				}
-				this.world.spawnEntityInWorld(entity);
-			} catch (final Exception t) {
-				ModLog.warn("Unable to place entity");
+			if (entity instanceof EntityHanging) {
+				final EntityHanging howsIt = (EntityHanging) entity;
+				howsIt.updateFacingWithBoundingBox(translateDirection(howsIt.facingDirection));
+				// ModLog.info(entity.getName() + " " + coord.toString());
 			}
+			this.world.spawnEntityInWorld(entity);
+		} catch (final Exception t) {
+			ModLog.warn("Unable to place entity");
+		}
+	}
+
+	/**
+	 * Saves the progress of the build so it can be resumed with
+	 * readFromNBT() on a builder constructed the same way.
+	 */
+	public void writeToNBT(final NBTTagCompound nbt) {
+		nbt.setInteger(NBT_PHASE, this.phase);
+		nbt.setInteger(NBT_CURSOR, this.cursor);
+		final int[] skipped = new int[this.blockList.size() * 3];
+		int i = 0;
+		for (final BlockPos pos : this.blockList) {
+			skipped[i++] = pos.getX();
+			skipped[i++] = pos.getY();
+			skipped[i++] = pos.getZ();
 		}
+		nbt.setIntArray(NBT_SKIPPED, skipped);
+		if (this.writer != null)
+			this.writer.writeToNBT(nbt);
+	}
+
+	public void readFromNBT(final NBTTagCompound nbt) {
+		this.phase = nbt.getInteger(NBT_PHASE);
+		this.cursor = nbt.getInteger(NBT_CURSOR);
+		this.blockList.clear();
+		final int[] skipped = nbt.getIntArray(NBT_SKIPPED);
+		for (int i = 0; i + 2 < skipped.length; i += 3)
+			this.blockList.add(new BlockPos(skipped[i], skipped[i + 1], skipped[i + 2]));
+		if (this.writer != null)
+			this.writer.readFromNBT(nbt);
 	}
 
 	protected void generateChestContents(final IInventory inventory, final String category, final int count) {
@@ -180,56 +395,15 @@ public class CopyStructureBuilder {
 		return BlockHelper.isChest(state) && StringUtils.isNotEmpty(this.properties.chestContents);
 	}
 
-	protected boolean doSkipSpawnerPlacement(final IBlockState state, final BlockPos v) {
-		if (BlockHelper.isSpawner(state) && rand.nextInt(100) >= this.properties.spawnerEnableChance) {
-			this.blockList.add(v);
-			return true;
-		}
-		return false;
-	}
-
-	protected boolean waitToPlace(final IBlockState state) {
-		return BlockHelper.isTorch(state) || BlockHelper.isLever(state) || BlockHelper.isButton(state)
-				|| BlockHelper.isDoor(state);
+	protected boolean waitToPlace(final long flags) {
+		return (flags & (BlockHelper.TORCH | BlockHelper.LEVER | BlockHelper.BUTTON | BlockHelper.DOOR)) != 0;
 	}
 
 	protected EnumFacing translateDirection(final EnumFacing dir) {
-		final int count = getRotationCount(dir);
-		switch (count) {
-		case 1:
-			return dir.rotateY();
-		case 2:
-			return dir.getOpposite();
-		case 3:
-			return dir.rotateYCCW();
-		case 0:
-		default:
-			return dir;
-		}
-	}
-
-	protected int getRotationCount(final EnumFacing dir) {
-		int count = 0;
-		if (this.orientation != null && dir != null) {
-			if (this.orientation == EnumFacing.WEST || this.orientation == EnumFacing.EAST)
-				count = 1;
-
-			if ((this.orientation == EnumFacing.NORTH || this.orientation == EnumFacing.EAST)
-					&& (dir == EnumFacing.NORTH || dir == EnumFacing.SOUTH))
-				count += 2;
-		}
-
-		return count;
+		return RotationTable.getDirection(this.orientation, dir);
 	}
 
 	protected IBlockState handleRotation(final IBlockState state) {
-		// Get it's current facing. If it is unknown
-		// just return - it is not handled or it's a
-		// basic block like dirt.
-		final EnumFacing direction = BlockHelper.getOrientation(state);
-		if (direction == null)
-			return state;
-
-		return BlockHelper.rotate(state, getRotationCount(direction));
+		return RotationTable.getState(state, this.orientation);
 	}
 }
@@ -35,9 +35,21 @@ public interface IStructureBuilder {
 
 	Dimensions getDimensions();
 
+	/**
+	 * Bounding box of the structure in world coordinates. Schematic
+	 * coordinates are mapped relative to its minimum corner.
+	 */
+	StructureBoundingBox getBoundingBox();
+
 	boolean isVecInside(final BlockPos pos, final StructureBoundingBox box);
 
 	BlockPos getWorldCoordinates(final BlockPos v);
 
 	void placeBlock(World world, final IBlockState state, final BlockPos pos, final StructureBoundingBox box);
+
+	/**
+	 * The state placeBlock() would actually put into the world for the given
+	 * schematic state, such as after biome theming. Used when placing in bulk.
+	 */
+	IBlockState getPlacementState(final IBlockState state);
 }
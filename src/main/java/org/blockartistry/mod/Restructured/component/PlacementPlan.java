@@ -0,0 +1,307 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.blockartistry.mod.Restructured.schematica.Schematic;
+import org.blockartistry.mod.Restructured.util.BlockHelper;
+import org.blockartistry.mod.Restructured.util.PackedIntArray;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.BlockPos;
+import net.minecraft.util.EnumFacing;
+
+/**
+ * A schematic compiled for placement in one facing: the palette rotated for
+ * the facing, per palette entry flags recording the special handling a
+ * state needs, and the list of cells that have to be placed last. The cells
+ * themselves are not copied. An entry number identifies a cell, its offset
+ * from the minimum corner of the structure bounding box is worked out from
+ * the number, and its palette index is read from the schematic's packed
+ * data.
+ *
+ * Entries are in the order the builder has always used: from the ground up,
+ * then X, then Z. Air is kept because placing it is what clears the terrain
+ * inside the structure.
+ *
+ * Plans are cached per schematic body and are released along with it. The
+ * size of a plan is charged to the body so the memory ceiling covers it.
+ */
+public final class PlacementPlan {
+
+	public static final int FLAG_DEFERRED = 1;
+	public static final int FLAG_SPAWNER = 2;
+	public static final int FLAG_BULK = 4;
+
+	// Index 4 is for a null facing, which places unrotated at absolute
+	// coordinates
+	private static final int NO_FACING = 4;
+
+	private static final Map<Schematic, PlacementPlan[]> cache = new WeakHashMap<Schematic, PlacementPlan[]>();
+
+	private final EnumFacing facing;
+	private final int width;
+	private final int length;
+	private final int layer;
+	private final int height;
+	private final int spanX;
+	private final int spanZ;
+	private final int count;
+
+	private final int[] deferred;
+
+	private final IBlockState[] palette;
+	private final byte[] flags;
+
+	private PlacementPlan(final Schematic schematic, final EnumFacing facing, final CopyStructureBuilder builder) {
+		this.facing = facing;
+		this.width = schematic.getWidth();
+		this.length = schematic.getLength();
+		this.layer = this.width * this.length;
+		this.height = schematic.getHeight();
+
+		final boolean swap = facing == EnumFacing.WEST || facing == EnumFacing.EAST;
+		this.spanX = (swap ? this.length : this.width) - 1;
+		this.spanZ = (swap ? this.width : this.length) - 1;
+
+		final List<IBlockState> source = schematic.getPalette();
+		this.palette = new IBlockState[source.size()];
+		this.flags = new byte[source.size()];
+		final long[] classes = BlockHelper.getFlags(source);
+		for (int i = 0; i < this.palette.length; i++) {
+			this.palette[i] = builder.handleRotation(source.get(i));
+			int f = 0;
+			if (builder.waitToPlace(classes[i]))
+				f |= FLAG_DEFERRED;
+			if ((classes[i] & BlockHelper.SPAWNER) != 0)
+				f |= FLAG_SPAWNER;
+			if (builder.canPlaceInBulk(classes[i]))
+				f |= FLAG_BULK;
+			this.flags[i] = (byte) f;
+		}
+
+		this.count = this.layer * this.height;
+		int deferredCount = 0;
+		for (int i = 0; i < this.count; i++)
+			if ((this.flags[getPaletteIndex(schematic, i)] & FLAG_DEFERRED) != 0)
+				deferredCount++;
+
+		this.deferred = new int[deferredCount];
+		for (int i = 0, d = 0; i < this.count; i++)
+			if ((this.flags[getPaletteIndex(schematic, i)] & FLAG_DEFERRED) != 0)
+				this.deferred[d++] = i;
+	}
+
+	/**
+	 * Obtains the plan for the schematic in the builder's facing, compiling
+	 * it on first use.
+	 */
+	public static PlacementPlan get(final Schematic schematic, final EnumFacing facing,
+			final CopyStructureBuilder builder) {
+		final int slot = facing == null ? NO_FACING : facing.getHorizontalIndex();
+		PlacementPlan plan;
+		synchronized (cache) {
+			PlacementPlan[] plans = cache.get(schematic);
+			if (plans == null) {
+				plans = new PlacementPlan[NO_FACING + 1];
+				cache.put(schematic, plans);
+			}
+			if (plans[slot] != null)
+				return plans[slot];
+			plan = plans[slot] = new PlacementPlan(schematic, facing, builder);
+		}
+		schematic.addAttachedSize(plan.getEstimatedSize());
+		return plan;
+	}
+
+	/**
+	 * Rough number of bytes held by the plan.
+	 */
+	public long getEstimatedSize() {
+		return this.deferred.length * 4L + this.palette.length * 9L + 64L;
+	}
+
+	// Same mapping as StructureComponent.getXWithOffset() less the minimum
+	// corner of the bounding box
+	private int toX(final int x, final int z) {
+		if (this.facing == null)
+			return x;
+		switch (this.facing) {
+		case WEST:
+			return this.spanX - z;
+		case EAST:
+			return z;
+		default:
+			return x;
+		}
+	}
+
+	private int toZ(final int x, final int z) {
+		if (this.facing == null)
+			return z;
+		switch (this.facing) {
+		case NORTH:
+			return this.spanZ - z;
+		case EAST:
+		case WEST:
+			return x;
+		default:
+			return z;
+		}
+	}
+
+	private int localX(final int entry) {
+		return (entry % this.layer) / this.length;
+	}
+
+	private int localY(final int entry) {
+		return entry / this.layer;
+	}
+
+	private int localZ(final int entry) {
+		return entry % this.length;
+	}
+
+	public int size() {
+		return this.count;
+	}
+
+	public int getOffsetX(final int entry) {
+		return toX(localX(entry), localZ(entry));
+	}
+
+	public int getOffsetY(final int entry) {
+		return localY(entry);
+	}
+
+	public int getOffsetZ(final int entry) {
+		return toZ(localX(entry), localZ(entry));
+	}
+
+	/**
+	 * Index of the entry's state in the palette.
+	 */
+	public int getPaletteIndex(final Schematic schematic, final int entry) {
+		final PackedIntArray data = schematic.getPackedData();
+		return data.get(schematic.getIndex(localX(entry), localY(entry), localZ(entry)));
+	}
+
+	public IBlockState getState(final Schematic schematic, final int entry) {
+		return this.palette[getPaletteIndex(schematic, entry)];
+	}
+
+	/**
+	 * Flags for a palette entry.
+	 */
+	public int getPaletteFlags(final int index) {
+		return this.flags[index];
+	}
+
+	/**
+	 * The rotated palette. Not to be modified.
+	 */
+	public IBlockState[] getPalette() {
+		return this.palette;
+	}
+
+	/**
+	 * Entries that have to be placed after the rest of the structure.
+	 */
+	public int[] getDeferred() {
+		return this.deferred;
+	}
+
+	/**
+	 * Schematic coordinates, as minX, maxX, minY, maxY, minZ, maxZ, of the
+	 * cells whose offsets fall within the offset ranges given. Returns null
+	 * if there are none.
+	 */
+	public int[] getLocalRange(final int minOffX, final int maxOffX, final int minOffY, final int maxOffY,
+			final int minOffZ, final int maxOffZ) {
+		final int ox0 = Math.max(minOffX, 0);
+		final int ox1 = Math.min(maxOffX, this.spanX);
+		final int oy0 = Math.max(minOffY, 0);
+		final int oy1 = Math.min(maxOffY, this.height - 1);
+		final int oz0 = Math.max(minOffZ, 0);
+		final int oz1 = Math.min(maxOffZ, this.spanZ);
+		if (ox0 > ox1 || oy0 > oy1 || oz0 > oz1)
+			return null;
+
+		// Inverse of toX() and toZ()
+		if (this.facing == null)
+			return new int[] { ox0, ox1, oy0, oy1, oz0, oz1 };
+		switch (this.facing) {
+		case NORTH:
+			return new int[] { ox0, ox1, oy0, oy1, this.spanZ - oz1, this.spanZ - oz0 };
+		case WEST:
+			return new int[] { oz0, oz1, oy0, oy1, this.spanX - ox1, this.spanX - ox0 };
+		case EAST:
+			return new int[] { oz0, oz1, oy0, oy1, ox0, ox1 };
+		default:
+			return new int[] { ox0, ox1, oy0, oy1, oz0, oz1 };
+		}
+	}
+
+	private int getEntry(final int x, final int y, final int z) {
+		return (y * this.width + x) * this.length + z;
+	}
+
+	/**
+	 * First entry within a range from getLocalRange().
+	 */
+	public int getFirst(final int[] range) {
+		return getEntry(range[0], range[2], range[4]);
+	}
+
+	/**
+	 * The entry after the one given that is within the range, in entry
+	 * order, or size() if there are no more.
+	 */
+	public int getNext(final int entry, final int[] range) {
+		int x = localX(entry);
+		int y = localY(entry);
+		int z = localZ(entry);
+		if (++z <= range[5])
+			return entry + 1;
+		z = range[4];
+		if (++x <= range[1])
+			return getEntry(x, y, z);
+		x = range[0];
+		if (++y <= range[3])
+			return getEntry(x, y, z);
+		return this.count;
+	}
+
+	/**
+	 * Schematic coordinates of an entry.
+	 */
+	public BlockPos getLocal(final int entry) {
+		return new BlockPos(localX(entry), localY(entry), localZ(entry));
+	}
+}
@@ -25,9 +25,12 @@
 
 package org.blockartistry.mod.Restructured.component;
 
+import java.util.List;
+import java.util.Random;
+
 import org.blockartistry.mod.Restructured.assets.SchematicProperties;
 import org.blockartistry.mod.Restructured.assets.SchematicWeightItem;
-import org.blockartistry.mod.Restructured.util.WeightTable;
+import org.blockartistry.mod.Restructured.util.FenwickWeightTable;
 
 import net.minecraft.world.gen.structure.StructureVillagePieces.PieceWeight;
 
@@ -44,17 +47,24 @@ import net.minecraft.world.gen.structure.StructureVillagePieces.PieceWeight;
  */
 public class SchematicPieceWeight extends PieceWeight {
 
-	protected WeightTable<SchematicWeightItem> potentials = null;
+	protected FenwickWeightTable<SchematicWeightItem> potentials = null;
+
+	// Remaining placements for this village indexed by table position. The
+	// properties are shared between villages so their limit is not touched.
+	protected final int[] remaining;
 
-	public SchematicPieceWeight(final WeightTable<SchematicWeightItem> potentials) {
+	public SchematicPieceWeight(final FenwickWeightTable<SchematicWeightItem> potentials) {
 		super(SchematicStructure.class, potentials.getTotalWeight(),
 				0);
 		
 		this.potentials = potentials;
         this.villagePiecesLimit = 0;
-        
-        for(final SchematicWeightItem e: this.potentials.getEntries()) {
-        	this.villagePiecesLimit += e.properties.limit;
+
+        final List<SchematicWeightItem> entries = this.potentials.getEntries();
+        this.remaining = new int[entries.size()];
+        for(int i = 0; i < this.remaining.length; i++) {
+        	this.remaining[i] = entries.get(i).properties.limit;
+        	this.villagePiecesLimit += this.remaining[i];
         }
 	}
 
@@ -62,20 +72,19 @@ public class SchematicPieceWeight extends PieceWeight {
 	 * Generates a new schematic to use when passing back the SchematicStructure
 	 * instance.
 	 * 
+	 * @param random Random source of the village being generated
 	 * @return Properties to use. Will return null if there is nothing else.
 	 */
-	public SchematicProperties getNextStructure() {
+	public SchematicProperties getNextStructure(final Random random) {
 		
 		if(this.potentials.size() == 0)
 			return null;
 		
-		final SchematicWeightItem item = this.potentials.next();
-		final SchematicProperties props = item.properties;
+		final int index = this.potentials.nextIndex(random);
 		
-		item.properties.limit--;
-		if(item.properties.limit == 0)
-			this.potentials.remove(item);
+		if(--this.remaining[index] == 0)
+			this.potentials.remove(index);
 
-		return props;
+		return this.potentials.get(index).properties;
 	}
 }
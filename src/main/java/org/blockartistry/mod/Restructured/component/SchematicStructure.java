@@ -89,7 +89,7 @@ public class SchematicStructure extends VillageStructureBase implements
 
 	@Override
 	public Dimensions getDimensions() {
-		return this.properties.schematic.getDimensions();
+		return this.properties.size;
 	}
 
 	@Override
@@ -111,7 +111,7 @@ public class SchematicStructure extends VillageStructureBase implements
 	protected BlockPos getSafeVillagerLocation() {
 
 		// Initialize starting point
-		final Dimensions size = this.properties.schematic.getDimensions();
+		final Dimensions size = this.properties.size;
 		int x = size.width >> 1;
 		int z = size.length >> 1;
 		int y = this.properties.groundOffset;
@@ -119,8 +119,8 @@ public class SchematicStructure extends VillageStructureBase implements
 		BlockPos pos = new BlockPos(x, y, z);
 
 		// Try several times finding a suitable spot
-		final Schematic s = this.properties.schematic;
-		for (int i = 0; i < 4; i++) {
+		final Schematic s = this.properties.getSchematic();
+		for (int i = 0; s != null && i < 4; i++) {
 			
 			final IBlockState state = s.getBlockState(pos.up());
 			if (BlockHelper.canBreath(state)) {
@@ -74,7 +74,7 @@ public class SchematicStructureCreationHandler implements VillagerRegistry.IVill
 
 		// Get our next structure
 		final SchematicPieceWeight pw = (SchematicPieceWeight) villagePiece;
-		final SchematicProperties props = pw.getNextStructure();
+		final SchematicProperties props = pw.getNextStructure(random);
 
 		// If we don't get properties we may have exceeded
 		// the spawn limit.
@@ -82,7 +82,7 @@ public class SchematicStructureCreationHandler implements VillagerRegistry.IVill
 			return null;
 
 		// Bound it out
-		final Dimensions size = props.schematic.getDimensions();
+		final Dimensions size = props.size;
 		final StructureBoundingBox _boundingBox = StructureBoundingBox.getComponentToAddBoundingBox(x, y, z, 0, 0, 0,
 				size.width, size.height, size.length, facing);
 
@@ -55,6 +55,11 @@ public abstract class VillageStructureBase extends StructureVillagePieces.Villag
 		setBlockState(world, state, pos.getX(), pos.getY(), pos.getZ(), box);
 	}
 
+	// Same biome specific swap that setBlockState() makes for villages
+	public IBlockState getPlacementState(final IBlockState state) {
+		return func_175847_a(state);
+	}
+
 	@Override
 	public boolean addComponentParts(final World world, final Random rand, final StructureBoundingBox box) {
 
@@ -37,7 +37,11 @@ import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
 
 import org.blockartistry.mod.Restructured.ModOptions;
 import org.blockartistry.mod.Restructured.assets.Assets;
+import org.blockartistry.mod.Restructured.util.BlockHelper;
+import org.blockartistry.mod.Restructured.util.RotationTable;
 import org.blockartistry.mod.Restructured.world.MobControl;
+import org.blockartistry.mod.Restructured.world.PlacementScheduler;
+import org.blockartistry.mod.Restructured.world.StructureIndex;
 import org.blockartistry.mod.Restructured.world.TerrainEventBusHandler;
 import org.blockartistry.mod.Restructured.world.themes.BlockThemes;
 import org.blockartistry.mod.Restructured.VersionCheck;
@@ -57,6 +61,10 @@ public class Proxy {
 
 	public void postInit(final FMLPostInitializationEvent event) {
 		
+		// Blocks are registered by now
+		BlockHelper.initialize();
+		RotationTable.initialize();
+
 		Assets.initialize();
 		
 		// Patch up the village biome list with the configured
@@ -80,10 +88,17 @@ public class Proxy {
 			BlockThemes.initialize();
 
 		MobControl.initialize();
+
+		// Resumes and runs incremental structure placement
+		PlacementScheduler.initialize();
+
+		// Releases the structure index of a world when it unloads
+		StructureIndex.initialize();
 	}
 
 	@EventHandler
 	public void serverLoad(FMLServerStartingEvent event) {
-
+		// Theme listeners may have changed since the last server
+		BlockThemes.clearReplacements();
 	}
 }
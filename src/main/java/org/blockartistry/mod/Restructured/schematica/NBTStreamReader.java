@@ -0,0 +1,196 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.blockartistry.mod.Restructured.schematica;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * Event style reader for NBT streams. The children of the root compound are
+ * handed to a Handler one at a time as they are decoded. Scalars and byte
+ * arrays are passed through directly so large arrays are read exactly once;
+ * nested compounds and lists are materialized since they are small in
+ * practice (tile entities, entities, mappings).
+ */
+public final class NBTStreamReader {
+
+	private static final int MAX_DEPTH = 512;
+
+	public interface Handler {
+
+		void onShort(final String name, final short value);
+
+		void onInt(final String name, final int value);
+
+		void onString(final String name, final String value);
+
+		void onByteArray(final String name, final byte[] value);
+
+		void onTag(final String name, final NBTBase tag);
+	}
+
+	private NBTStreamReader() {
+	}
+
+	/**
+	 * Reads an NBT stream, compressed or not, and feeds the root level tags
+	 * to the handler.
+	 */
+	public static void read(final InputStream stream, final Handler handler) throws IOException {
+		final BufferedInputStream buffered = new BufferedInputStream(stream);
+		buffered.mark(2);
+		final int magic = buffered.read() | (buffered.read() << 8);
+		buffered.reset();
+
+		final DataInputStream input = new DataInputStream(
+				magic == GZIPInputStream.GZIP_MAGIC ? new BufferedInputStream(new GZIPInputStream(buffered))
+						: buffered);
+
+		final byte type = input.readByte();
+		if (type != Constants.NBT.TAG_COMPOUND)
+			throw new IOException("Root tag must be a named compound tag");
+		input.readUTF();
+
+		byte childType;
+		while ((childType = input.readByte()) != Constants.NBT.TAG_END) {
+			final String name = input.readUTF();
+			switch (childType) {
+			case Constants.NBT.TAG_SHORT:
+				handler.onShort(name, input.readShort());
+				break;
+			case Constants.NBT.TAG_INT:
+				handler.onInt(name, input.readInt());
+				break;
+			case Constants.NBT.TAG_STRING:
+				handler.onString(name, input.readUTF());
+				break;
+			case Constants.NBT.TAG_BYTE_ARRAY:
+				handler.onByteArray(name, readByteArray(input));
+				break;
+			default:
+				handler.onTag(name, readPayload(input, childType, 1));
+			}
+		}
+	}
+
+	/**
+	 * Feeds the children of an already materialized compound to the handler
+	 * in the same way as read() would.
+	 */
+	public static void dispatch(final NBTTagCompound compound, final Handler handler) {
+		for (final String name : compound.getKeySet()) {
+			final NBTBase tag = compound.getTag(name);
+			switch (tag.getId()) {
+			case Constants.NBT.TAG_SHORT:
+				handler.onShort(name, ((NBTTagShort) tag).getShort());
+				break;
+			case Constants.NBT.TAG_INT:
+				handler.onInt(name, ((NBTTagInt) tag).getInt());
+				break;
+			case Constants.NBT.TAG_STRING:
+				handler.onString(name, ((NBTTagString) tag).getString());
+				break;
+			case Constants.NBT.TAG_BYTE_ARRAY:
+				handler.onByteArray(name, ((NBTTagByteArray) tag).getByteArray());
+				break;
+			default:
+				handler.onTag(name, tag);
+			}
+		}
+	}
+
+	private static byte[] readByteArray(final DataInput input) throws IOException {
+		final byte[] result = new byte[input.readInt()];
+		input.readFully(result);
+		return result;
+	}
+
+	private static NBTBase readPayload(final DataInput input, final byte type, final int depth) throws IOException {
+		if (depth > MAX_DEPTH)
+			throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+
+		switch (type) {
+		case Constants.NBT.TAG_BYTE:
+			return new NBTTagByte(input.readByte());
+		case Constants.NBT.TAG_SHORT:
+			return new NBTTagShort(input.readShort());
+		case Constants.NBT.TAG_INT:
+			return new NBTTagInt(input.readInt());
+		case Constants.NBT.TAG_LONG:
+			return new NBTTagLong(input.readLong());
+		case Constants.NBT.TAG_FLOAT:
+			return new NBTTagFloat(input.readFloat());
+		case Constants.NBT.TAG_DOUBLE:
+			return new NBTTagDouble(input.readDouble());
+		case Constants.NBT.TAG_BYTE_ARRAY:
+			return new NBTTagByteArray(readByteArray(input));
+		case Constants.NBT.TAG_STRING:
+			return new NBTTagString(input.readUTF());
+		case Constants.NBT.TAG_LIST: {
+			final byte elementType = input.readByte();
+			final int count = input.readInt();
+			final NBTTagList list = new NBTTagList();
+			for (int i = 0; i < count; i++)
+				list.appendTag(readPayload(input, elementType, depth + 1));
+			return list;
+		}
+		case Constants.NBT.TAG_COMPOUND: {
+			final NBTTagCompound compound = new NBTTagCompound();
+			byte childType;
+			while ((childType = input.readByte()) != Constants.NBT.TAG_END) {
+				final String name = input.readUTF();
+				compound.setTag(name, readPayload(input, childType, depth + 1));
+			}
+			return compound;
+		}
+		case Constants.NBT.TAG_INT_ARRAY: {
+			final int[] result = new int[input.readInt()];
+			for (int i = 0; i < result.length; i++)
+				result[i] = input.readInt();
+			return new NBTTagIntArray(result);
+		}
+		default:
+			throw new IOException("Unknown NBT tag type " + type);
+		}
+	}
+}
@@ -43,17 +43,24 @@ import net.minecraft.util.BlockPos;
 import net.minecraft.world.World;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.blockartistry.mod.Restructured.util.Dimensions;
+import org.blockartistry.mod.Restructured.util.PackedIntArray;
 import org.blockartistry.mod.Restructured.world.themes.BlockThemes;
 
 public class Schematic {
 	
 	private static final IBlockState AIR = Blocks.air.getDefaultState();
 
+	// Initial width of a palette index. Most structures use fewer
+	// than 16 distinct block states; the width grows as needed.
+	private static final int INITIAL_PALETTE_BITS = 4;
+
 	public static class SchematicTileEntity {
 
 		public final BlockPos coords;
@@ -84,7 +91,12 @@ public class Schematic {
 		}
 	}
 
-	private final IBlockState[] data;
+	// Voxels are stored as indices into a per-schematic palette of
+	// block states. The index array is bit-packed to the width
+	// required by the palette size.
+	private final List<IBlockState> palette = new ArrayList<IBlockState>();
+	private final Map<IBlockState, Integer> paletteLookup = new IdentityHashMap<IBlockState, Integer>();
+	private PackedIntArray data;
 
 	private final List<SchematicTileEntity> tileEntities = new ArrayList<SchematicTileEntity>();
 	private final List<SchematicEntity> entities = new ArrayList<SchematicEntity>();
@@ -97,9 +109,14 @@ public class Schematic {
 
 	private final Dimensions dim;
 
+	// Heap held by structures derived from the body, such as placement plans
+	private volatile long attachedSize;
+
 	public Schematic(final int width, final int height, final int length) {
 
-		this.data = new IBlockState[width * height * length];
+		// Index 0 is air so a freshly created schematic reads as empty
+		this.data = new PackedIntArray(INITIAL_PALETTE_BITS, width * height * length);
+		getPaletteIndex(AIR);
 
 		this.width = width;
 		this.height = height;
@@ -113,14 +130,87 @@ public class Schematic {
 		this.heightOffset = length;
 	}
 
+	/**
+	 * Reconstructs a schematic from a previously captured palette and packed
+	 * index array, such as from the schematic cache.
+	 */
+	public Schematic(final int width, final int height, final int length, final List<IBlockState> palette,
+			final PackedIntArray data) {
+		this(width, height, length);
+
+		if (data.size() != width * height * length)
+			throw new IllegalArgumentException("Voxel data does not match schematic dimensions");
+
+		this.palette.clear();
+		this.palette.addAll(palette);
+		rebuildPaletteLookup();
+		this.data = data;
+	}
+
+	// Scrubbing only needs to touch the palette, not every voxel.
 	public void scrubFireSources() {
-		for (int i = 0; i < this.data.length; i++)
-			this.data[i] = BlockThemes.scrubFireSource(this.data[i]);
+		for (int i = 0; i < this.palette.size(); i++)
+			this.palette.set(i, BlockThemes.scrubFireSource(this.palette.get(i)));
+		rebuildPaletteLookup();
 	}
 
 	public void scrubEggs() {
-		for (int i = 0; i < this.data.length; i++)
-			this.data[i] = BlockThemes.scrubEggs(this.data[i]);
+		for (int i = 0; i < this.palette.size(); i++)
+			this.palette.set(i, BlockThemes.scrubEggs(this.palette.get(i)));
+		rebuildPaletteLookup();
+	}
+
+	private void rebuildPaletteLookup() {
+		this.paletteLookup.clear();
+		for (int i = 0; i < this.palette.size(); i++)
+			if (!this.paletteLookup.containsKey(this.palette.get(i)))
+				this.paletteLookup.put(this.palette.get(i), Integer.valueOf(i));
+	}
+
+	private int getPaletteIndex(final IBlockState state) {
+		final Integer idx = this.paletteLookup.get(state);
+		if (idx != null)
+			return idx.intValue();
+
+		final int index = this.palette.size();
+		this.palette.add(state);
+		this.paletteLookup.put(state, Integer.valueOf(index));
+
+		// Widen the index array if the palette no longer fits
+		final int bits = PackedIntArray.bitsFor(this.palette.size());
+		if (bits > this.data.getBitsPerEntry())
+			this.data = this.data.resize(bits);
+
+		return index;
+	}
+
+	/**
+	 * Rough estimate of the heap used by the schematic in bytes. Used for
+	 * cache accounting rather than exact measurement.
+	 */
+	public long getEstimatedSize() {
+		return this.data.getWords().length * 8L + this.palette.size() * 32L
+				+ (this.tileEntities.size() + this.entities.size()) * 512L + this.attachedSize;
+	}
+
+	/**
+	 * Charges memory held on behalf of the schematic so it is counted in
+	 * getEstimatedSize().
+	 */
+	public synchronized void addAttachedSize(final long size) {
+		this.attachedSize += size;
+	}
+
+	public PackedIntArray getPackedData() {
+		return this.data;
+	}
+
+	/**
+	 * Distinct block states used by the schematic. Entries may repeat after
+	 * scrubbing.
+	 */
+	public List<IBlockState> getPalette() {
+		return this.palette;
 	}
 
 	public Dimensions getDimensions() {
@@ -128,19 +218,44 @@ public class Schematic {
 	}
 
 	private int getDataIndex(final BlockPos pos) {
-		return pos.getX() * this.widthOffset + pos.getY() * this.heightOffset + pos.getZ();
+		return getIndex(pos.getX(), pos.getY(), pos.getZ());
+	}
+
+	/**
+	 * Linear voxel index for the given coordinate. Coordinates are not
+	 * range checked.
+	 */
+	public int getIndex(final int x, final int y, final int z) {
+		return x * this.widthOffset + y * this.heightOffset + z;
+	}
+
+	/**
+	 * Adds the state to the palette if needed and returns its palette index.
+	 * Must be called before writing the index via setPaletteIndex() since
+	 * the index array may be widened.
+	 */
+	public int addToPalette(final IBlockState state) {
+		return getPaletteIndex(state);
+	}
+
+	/**
+	 * Bulk write path used by the decoders - sets the voxel at the linear
+	 * index to an entry previously obtained from addToPalette().
+	 */
+	public void setPaletteIndex(final int index, final int paletteIndex) {
+		this.data.set(index, paletteIndex);
 	}
 
 	public IBlockState getBlockState(final BlockPos pos) {
 		if (!isValid(pos))
 			return AIR;
-		return this.data[getDataIndex(pos)];
+		return this.palette.get(this.data.get(getDataIndex(pos)));
 	}
 
 	public boolean setBlockState(final BlockPos pos, final IBlockState state) {
 		if (!isValid(pos))
 			return false;
-		this.data[getDataIndex(pos)] = state;
+		this.data.set(getDataIndex(pos), getPaletteIndex(state));
 		return true;
 	}
 
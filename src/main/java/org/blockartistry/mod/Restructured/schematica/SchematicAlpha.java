@@ -38,17 +38,15 @@ import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityList;
+import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.BlockPos;
 import net.minecraft.util.ResourceLocation;
-import net.minecraftforge.common.util.Constants;
 import net.minecraftforge.fml.common.registry.FMLControlledNamespacedRegistry;
 import net.minecraftforge.fml.common.registry.GameData;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 
 import org.blockartistry.mod.Restructured.ModLog;
@@ -57,112 +55,226 @@ import org.blockartistry.mod.Restructured.world.FantasyIsland;
 public class SchematicAlpha extends SchematicFormat {
 	private static final FMLControlledNamespacedRegistry<Block> BLOCK_REGISTRY = GameData.getBlockRegistry();
 
-	@Override
-	public Schematic readFromNBT(NBTTagCompound tagCompound) {
+	// Block IDs are 12 bits: 8 from Blocks and 4 from AddBlocks
+	private static final int MAX_BLOCK_ID = 4096;
+
+	/**
+	 * Collects the root level tags of an Alpha schematic as they are decoded
+	 * and builds the Schematic once the stream has been consumed. The block
+	 * arrays are held as read from the stream - they are not copied again.
+	 */
+	public static class AlphaDecoder implements SchematicFormat.Decoder {
+
+		private String materials;
+		private short width;
+		private short height;
+		private short length;
+		private byte[] blocks;
+		private byte[] metadata;
+		private byte[] addBlocksNibble;
+		private byte[] addBlocks;
+		private NBTTagCompound mapping;
+		private NBTTagList tileEntities;
+		private NBTTagList entities;
+
+		private boolean hasOriginX;
+		private boolean hasOriginY;
+		private boolean hasOriginZ;
+		private int originX;
+		private int originY;
+		private int originZ;
 
-		final byte localBlocks[] = tagCompound.getByteArray(Names.NBT.BLOCKS);
-		final byte localMetadata[] = tagCompound.getByteArray(Names.NBT.DATA);
-
-		boolean extra = false;
-		byte extraBlocks[] = null;
-		if (tagCompound.hasKey(Names.NBT.ADD_BLOCKS)) {
-			extra = true;
-			final byte extraBlocksNibble[] = tagCompound.getByteArray(Names.NBT.ADD_BLOCKS);
-			extraBlocks = new byte[extraBlocksNibble.length * 2];
-			for (int i = 0; i < extraBlocksNibble.length; i++) {
-				extraBlocks[i * 2 + 0] = (byte) ((extraBlocksNibble[i] >> 4) & 0xF);
-				extraBlocks[i * 2 + 1] = (byte) (extraBlocksNibble[i] & 0xF);
+		@Override
+		public void onShort(final String name, final short value) {
+			if (Names.NBT.WIDTH.equals(name))
+				this.width = value;
+			else if (Names.NBT.HEIGHT.equals(name))
+				this.height = value;
+			else if (Names.NBT.LENGTH.equals(name))
+				this.length = value;
+		}
+
+		@Override
+		public void onInt(final String name, final int value) {
+			if ("WEOriginX".equals(name)) {
+				this.hasOriginX = true;
+				this.originX = value;
+			} else if ("WEOriginY".equals(name)) {
+				this.hasOriginY = true;
+				this.originY = value;
+			} else if ("WEOriginZ".equals(name)) {
+				this.hasOriginZ = true;
+				this.originZ = value;
 			}
-		} else if (tagCompound.hasKey(Names.NBT.ADD_BLOCKS_SCHEMATICA)) {
-			extra = true;
-			extraBlocks = tagCompound.getByteArray(Names.NBT.ADD_BLOCKS_SCHEMATICA);
 		}
 
-		final short width = tagCompound.getShort(Names.NBT.WIDTH);
-		final short length = tagCompound.getShort(Names.NBT.LENGTH);
-		final short height = tagCompound.getShort(Names.NBT.HEIGHT);
+		@Override
+		public void onString(final String name, final String value) {
+			if (Names.NBT.MATERIALS.equals(name))
+				this.materials = value;
+		}
+
+		@Override
+		public void onByteArray(final String name, final byte[] value) {
+			if (Names.NBT.BLOCKS.equals(name))
+				this.blocks = value;
+			else if (Names.NBT.DATA.equals(name))
+				this.metadata = value;
+			else if (Names.NBT.ADD_BLOCKS.equals(name))
+				this.addBlocksNibble = value;
+			else if (Names.NBT.ADD_BLOCKS_SCHEMATICA.equals(name))
+				this.addBlocks = value;
+		}
+
+		@Override
+		public void onTag(final String name, final NBTBase tag) {
+			if (Names.NBT.MAPPING_SCHEMATICA.equals(name) && tag instanceof NBTTagCompound)
+				this.mapping = (NBTTagCompound) tag;
+			else if (Names.NBT.TILE_ENTITIES.equals(name) && tag instanceof NBTTagList)
+				this.tileEntities = (NBTTagList) tag;
+			else if (Names.NBT.ENTITIES.equals(name) && tag instanceof NBTTagList)
+				this.entities = (NBTTagList) tag;
+		}
+
+		@Override
+		public String getFormat() {
+			return this.materials == null ? "" : this.materials;
+		}
 
-		final Map<Short, Short> oldToNew = new HashMap<Short, Short>();
-		if (tagCompound.hasKey(Names.NBT.MAPPING_SCHEMATICA)) {
-			final NBTTagCompound mapping = tagCompound.getCompoundTag(Names.NBT.MAPPING_SCHEMATICA);
-			final Set<String> names = mapping.getKeySet();
-			for (final String name : names) {
-				oldToNew.put(mapping.getShort(name), (short) BLOCK_REGISTRY.getId(new ResourceLocation(name)));
+		private static IBlockState resolve(final int blockID, final int meta) {
+			return BLOCK_REGISTRY.getObjectById(blockID).getStateFromMeta(meta);
+		}
+
+		// AddBlocks packs two 4 bit values per byte, high nibble first.
+		// Decode in place rather than expanding into a second array.
+		private int getExtra(final int index) {
+			if (this.addBlocksNibble != null) {
+				final int b = this.addBlocksNibble[index >> 1];
+				return ((index & 1) == 0 ? (b >> 4) : b) & 0xF;
 			}
+			// Block IDs are 12 bits so only the low nibble can be used
+			if (this.addBlocks != null)
+				return this.addBlocks[index] & 0x0F;
+			return 0;
 		}
 
-		final Schematic schematic = new Schematic(width, height, length);
-		for (int x = 0; x < width; x++) {
+		@Override
+		public Schematic build() {
+
+			// Primitive remap of Schematica IDs to the IDs of the
+			// running instance.
+			final int[] remap = new int[MAX_BLOCK_ID];
+			for (int i = 0; i < remap.length; i++)
+				remap[i] = i;
+			if (this.mapping != null) {
+				final Set<String> names = this.mapping.getKeySet();
+				for (final String name : names) {
+					final int oldId = this.mapping.getShort(name);
+					if (oldId >= 0 && oldId < MAX_BLOCK_ID)
+						remap[oldId] = BLOCK_REGISTRY.getId(new ResourceLocation(name));
+				}
+			}
+
+			// Cache of (id, meta) to palette index for this load. Entries
+			// are stored +1 so that 0 means not resolved yet.
+			final int[] stateCache = new int[MAX_BLOCK_ID << 4];
+
+			final Schematic schematic = new Schematic(width, height, length);
+			final int xStride = schematic.getIndex(1, 0, 0);
+
+			// The source array is ordered x, then z, then y. Walk it
+			// linearly and step the destination index along x.
+			int index = 0;
 			for (int y = 0; y < height; y++) {
 				for (int z = 0; z < length; z++) {
-					final int index = x + (y * length + z) * width;
-					int blockID = (localBlocks[index] & 0xFF) | (extra ? ((extraBlocks[index] & 0xFF) << 8) : 0);
-					final int meta = localMetadata[index] & 0xFF;
+					int dest = schematic.getIndex(0, y, z);
+					for (int x = 0; x < width; x++, index++, dest += xStride) {
+						final int blockID = remap[(this.blocks[index] & 0xFF) | (getExtra(index) << 8)];
+						final int meta = this.metadata[index] & 0xFF;
 
-					Short id = null;
-					if ((id = oldToNew.get((short) blockID)) != null) {
-						blockID = id;
-					}
+						int paletteIndex;
+						if (meta < 16 && blockID >= 0 && blockID < MAX_BLOCK_ID) {
+							final int key = (blockID << 4) | meta;
+							paletteIndex = stateCache[key] - 1;
+							if (paletteIndex < 0) {
+								paletteIndex = schematic.addToPalette(resolve(blockID, meta));
+								stateCache[key] = paletteIndex + 1;
+							}
+						} else {
+							paletteIndex = schematic.addToPalette(resolve(blockID, meta));
+						}
 
-					final BlockPos pos = new BlockPos(x, y, z);
-					final IBlockState state = BLOCK_REGISTRY.getObjectById(blockID).getStateFromMeta(meta);
-					schematic.setBlockState(pos, state);
+						schematic.setPaletteIndex(dest, paletteIndex);
+					}
 				}
 			}
-		}
 
-		if (tagCompound.hasKey(Names.NBT.TILE_ENTITIES)) {
-			final NBTTagList tileEntitiesList = tagCompound.getTagList(Names.NBT.TILE_ENTITIES,
-					Constants.NBT.TAG_COMPOUND);
-
-			for (int i = 0; i < tileEntitiesList.tagCount(); i++) {
-				try {
-					// Attempt to load the entity. If it loads add the tag
-					// compound to the list.
-					final NBTTagCompound tc = tileEntitiesList.getCompoundTagAt(i);
-					final TileEntity tileEntity = TileEntity.createAndLoadEntity(tc);
-					if (tileEntity != null) {
-						schematic.addTileEntity(tileEntity.getPos(), tc);
+			if (this.tileEntities != null) {
+				for (int i = 0; i < this.tileEntities.tagCount(); i++) {
+					try {
+						// Attempt to load the entity. If it loads add the tag
+						// compound to the list. readFromNBT() of other mods
+						// is not written to run on several threads, so loads
+						// are serialized the same as entities below.
+						final NBTTagCompound tc = this.tileEntities.getCompoundTagAt(i);
+						final TileEntity tileEntity;
+						synchronized (FantasyIsland.instance) {
+							tileEntity = TileEntity.createAndLoadEntity(tc);
+						}
+						if (tileEntity != null) {
+							schematic.addTileEntity(tileEntity.getPos(), tc);
+						}
+					} catch (final Exception e) {
+						ModLog.error("TileEntity failed to load properly!", e);
 					}
-				} catch (final Exception e) {
-					ModLog.error("TileEntity failed to load properly!", e);
 				}
 			}
-		}
-
-		if (tagCompound.hasKey("WEOriginX") && tagCompound.hasKey("WEOriginY") && tagCompound.hasKey("WEOriginZ")) {
 
-			// Get WorldEdit origin information so we can offset the entities
-			// properly.
-			final int originX = tagCompound.getInteger("WEOriginX");
-			final int originY = tagCompound.getInteger("WEOriginY");
-			final int originZ = tagCompound.getInteger("WEOriginZ");
+			if (this.hasOriginX && this.hasOriginY && this.hasOriginZ && this.entities != null) {
 
-			final NBTTagList entitiesList = tagCompound.getTagList(Names.NBT.ENTITIES, Constants.NBT.TAG_COMPOUND);
+				// Get WorldEdit origin information so we can offset the
+				// entities properly.
+				for (int i = 0; i < this.entities.tagCount(); i++) {
+					try {
+						// Attempt to load the entity. If it loads alter the
+						// location information based on the origin and repack
+						// into NBT. Store the NBT in the internal list.
+						// The dummy world is shared so serialize access when
+						// schematics are decoded in parallel.
+						final NBTTagCompound cp = this.entities.getCompoundTagAt(i);
+						final NBTTagCompound repack = new NBTTagCompound();
+						final Entity entity;
+						synchronized (FantasyIsland.instance) {
+							entity = EntityList.createEntityFromNBT(cp, FantasyIsland.instance);
 
-			for (int i = 0; i < entitiesList.tagCount(); i++) {
-				try {
-					// Attempt to load the entity. If it loads alter the
-					// location information based on the origin and repack
-					// into NBT. Store the NBT in the internal list.
-					final NBTTagCompound cp = entitiesList.getCompoundTagAt(i);
-					final Entity entity = EntityList.createEntityFromNBT(cp, FantasyIsland.instance);
+							entity.posX = entity.posX - this.originX;
+							entity.posY = entity.posY - this.originY;
+							entity.posZ = entity.posZ - this.originZ;
 
-					entity.posX = entity.posX - originX;
-					entity.posY = entity.posY - originY;
-					entity.posZ = entity.posZ - originZ;
+							entity.writeToNBTOptional(repack);
+						}
 
-					final NBTTagCompound repack = new NBTTagCompound();
-					entity.writeToNBTOptional(repack);
-
-					final BlockPos pos = new BlockPos(entity);
-					schematic.addEntity(entity.getUniqueID(), repack, pos);
-				} catch (final Exception e) {
-					ModLog.error("Entity failed to load properly!", e);
+						final BlockPos pos = new BlockPos(entity);
+						schematic.addEntity(entity.getUniqueID(), repack, pos);
+					} catch (final Exception e) {
+						ModLog.error("Entity failed to load properly!", e);
+					}
 				}
 			}
+
+			return schematic;
 		}
+	}
 
-		return schematic;
+	@Override
+	public AlphaDecoder newDecoder() {
+		return new AlphaDecoder();
+	}
+
+	@Override
+	public Schematic readFromNBT(NBTTagCompound tagCompound) {
+		final AlphaDecoder decoder = newDecoder();
+		NBTStreamReader.dispatch(tagCompound, decoder);
+		return decoder.build();
 	}
 }
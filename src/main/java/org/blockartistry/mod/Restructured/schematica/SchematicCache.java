@@ -0,0 +1,376 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.blockartistry.mod.Restructured.schematica;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.blockartistry.mod.Restructured.ModLog;
+import org.blockartistry.mod.Restructured.schematica.Schematic.SchematicEntity;
+import org.blockartistry.mod.Restructured.schematica.Schematic.SchematicTileEntity;
+import org.blockartistry.mod.Restructured.util.PackedIntArray;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.BlockPos;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fml.common.registry.FMLControlledNamespacedRegistry;
+import net.minecraftforge.fml.common.registry.GameData;
+
+/**
+ * On disk cache of decoded schematics. Entries are keyed by a hash of the raw
+ * schematic bytes plus the scrub options so a changed pack or a changed
+ * option results in a miss. The palette is stored by registry name and meta
+ * so entries survive block ID shuffles between mod sets.
+ *
+ * Layout: magic, version, payload length and CRC32, then the payload:
+ * width/height/length, palette, packed voxel words, and an NBT blob holding
+ * the tile entities and entities. An entry whose payload does not match the
+ * header is treated as a miss.
+ */
+public final class SchematicCache {
+
+	private static final FMLControlledNamespacedRegistry<Block> BLOCK_REGISTRY = GameData.getBlockRegistry();
+
+	private static final int MAGIC = 0x52534331; // RSC1
+	private static final int VERSION = 2;
+	private static final int HEADER_LENGTH = 16;
+	private static final String EXTENSION = ".bin";
+
+	private final File directory;
+	private final Set<String> referenced = Collections.synchronizedSet(new HashSet<String>());
+
+	public SchematicCache(final File directory) {
+		this.directory = directory;
+		this.directory.mkdirs();
+	}
+
+	/**
+	 * Cache key for the raw schematic content and the scrub options that
+	 * were applied after decode.
+	 */
+	public static String getKey(final byte[] content, final boolean suppressFire, final boolean suppressEggs) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(content);
+			digest.update((byte) VERSION);
+			digest.update((byte) ((suppressFire ? 1 : 0) | (suppressEggs ? 2 : 0)));
+
+			final StringBuilder builder = new StringBuilder();
+			for (final byte b : digest.digest())
+				builder.append(String.format("%02x", b & 0xFF));
+			return builder.toString();
+		} catch (final Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private File getFile(final String key) {
+		return new File(this.directory, key + EXTENSION);
+	}
+
+	/**
+	 * Attempts to load the schematic for the key. Returns null on a miss or
+	 * if the entry cannot be used (corrupt, references a missing block).
+	 */
+	public Schematic load(final String key) {
+		this.referenced.add(key);
+
+		final File file = getFile(key);
+		if (!file.isFile())
+			return null;
+
+		// Read as a stream rather than mapped. A mapping stays live until it
+		// is collected, which on Windows stops a corrupt entry from being
+		// replaced by save().
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			return read(input, file.length());
+		} catch (final Exception ex) {
+			ModLog.warn("Unable to use cached schematic %s: %s", file.getName(), ex.getMessage());
+			return null;
+		} finally {
+			if (input != null)
+				try {
+					input.close();
+				} catch (final IOException e) {
+					;
+				}
+		}
+	}
+
+	/**
+	 * Writes the schematic to the cache. Failures are logged and otherwise
+	 * ignored - the cache is an optimization. Returns true if the entry was
+	 * stored.
+	 */
+	public boolean save(final String key, final Schematic schematic) {
+		this.referenced.add(key);
+
+		final File file = getFile(key);
+		File temp = null;
+		DataOutputStream output = null;
+		try {
+			// Unique per call as the same schematic can be decoded by more
+			// than one thread at a time
+			temp = File.createTempFile(key, ".tmp", this.directory);
+			output = new DataOutputStream(new FileOutputStream(temp));
+			write(output, schematic);
+			output.close();
+			output = null;
+
+			if (file.exists())
+				file.delete();
+			if (temp.renameTo(file))
+				return true;
+			ModLog.warn("Unable to store cached schematic %s", file.getName());
+		} catch (final Exception ex) {
+			ModLog.warn("Unable to store cached schematic %s: %s", file.getName(), ex.getMessage());
+		} finally {
+			if (output != null)
+				try {
+					output.close();
+				} catch (final IOException e) {
+					;
+				}
+			if (temp != null)
+				temp.delete();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Removes cache entries that were not referenced during this load cycle,
+	 * such as entries for schematics that were updated or removed.
+	 */
+	public void prune() {
+		final File[] files = this.directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File pathname) {
+				return pathname.isFile() && pathname.getName().endsWith(EXTENSION);
+			}
+		});
+
+		if (files == null)
+			return;
+
+		for (final File file : files) {
+			final String name = file.getName();
+			if (!this.referenced.contains(name.substring(0, name.length() - EXTENSION.length())))
+				file.delete();
+		}
+	}
+
+	private static void write(final DataOutputStream stream, final Schematic schematic) throws IOException {
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final DataOutputStream output = new DataOutputStream(payload);
+		output.writeShort(schematic.getWidth());
+		output.writeShort(schematic.getHeight());
+		output.writeShort(schematic.getLength());
+
+		final List<IBlockState> palette = schematic.getPalette();
+		output.writeInt(palette.size());
+		for (final IBlockState state : palette) {
+			final Block block = state.getBlock();
+			output.writeUTF(BLOCK_REGISTRY.getNameForObject(block).toString());
+			output.writeByte(block.getMetaFromState(state));
+		}
+
+		final PackedIntArray data = schematic.getPackedData();
+		final long[] words = data.getWords();
+		output.writeByte(data.getBitsPerEntry());
+		output.writeInt(words.length);
+		for (final long w : words)
+			output.writeLong(w);
+
+		final NBTTagList tiles = new NBTTagList();
+		for (final SchematicTileEntity e : schematic.getTileEntities()) {
+			final NBTTagCompound tag = new NBTTagCompound();
+			writePos(tag, e.coords);
+			tag.setTag("nbt", e.nbt);
+			tiles.appendTag(tag);
+		}
+
+		final NBTTagList entities = new NBTTagList();
+		for (final SchematicEntity e : schematic.getEntities()) {
+			final NBTTagCompound tag = new NBTTagCompound();
+			writePos(tag, e.coords);
+			tag.setLong("idMost", e.id.getMostSignificantBits());
+			tag.setLong("idLeast", e.id.getLeastSignificantBits());
+			tag.setTag("nbt", e.nbt);
+			entities.appendTag(tag);
+		}
+
+		final NBTTagCompound extra = new NBTTagCompound();
+		extra.setTag(Names.NBT.TILE_ENTITIES, tiles);
+		extra.setTag(Names.NBT.ENTITIES, entities);
+
+		final ByteArrayOutputStream blob = new ByteArrayOutputStream();
+		CompressedStreamTools.write(extra, new DataOutputStream(blob));
+		output.writeInt(blob.size());
+		blob.writeTo(output);
+		output.flush();
+
+		final byte[] bytes = payload.toByteArray();
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+
+		stream.writeInt(MAGIC);
+		stream.writeInt(VERSION);
+		stream.writeInt(bytes.length);
+		stream.writeInt((int) crc.getValue());
+		stream.write(bytes);
+	}
+
+	private static Schematic read(final DataInputStream file, final long fileLength) throws IOException {
+		if (fileLength < HEADER_LENGTH || file.readInt() != MAGIC || file.readInt() != VERSION)
+			throw new IOException("Not a current cache file");
+
+		final int size = file.readInt();
+		final int checksum = file.readInt();
+		if (size != fileLength - HEADER_LENGTH)
+			throw new IOException("Truncated cache file");
+
+		// The payload is checked as it is decoded. Counts are bounded by the
+		// payload size so a damaged entry cannot cause a huge allocation.
+		final CountingCheckedStream checked = new CountingCheckedStream(file);
+		final DataInputStream buffer = new DataInputStream(checked);
+
+		final int width = buffer.readShort();
+		final int height = buffer.readShort();
+		final int length = buffer.readShort();
+
+		final int paletteSize = checkCount(buffer.readInt(), size);
+		final List<IBlockState> palette = new ArrayList<IBlockState>(paletteSize);
+		for (int i = 0; i < paletteSize; i++) {
+			final ResourceLocation name = new ResourceLocation(buffer.readUTF());
+			final int meta = buffer.readByte();
+			if (!BLOCK_REGISTRY.containsKey(name))
+				throw new IOException("Unknown block " + name);
+			palette.add(BLOCK_REGISTRY.getObject(name).getStateFromMeta(meta));
+		}
+
+		final int bits = buffer.readByte();
+		final long[] words = new long[checkCount(buffer.readInt(), size / 8)];
+		for (int i = 0; i < words.length; i++)
+			words[i] = buffer.readLong();
+
+		final Schematic schematic = new Schematic(width, height, length, palette,
+				new PackedIntArray(bits, width * height * length, words));
+
+		final byte[] blob = new byte[checkCount(buffer.readInt(), size)];
+		buffer.readFully(blob);
+
+		if (checked.getCount() != size || (int) checked.getChecksum().getValue() != checksum)
+			throw new IOException("Cache file checksum mismatch");
+
+		final NBTTagCompound extra = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(blob)));
+
+		final NBTTagList tiles = extra.getTagList(Names.NBT.TILE_ENTITIES, Constants.NBT.TAG_COMPOUND);
+		for (int i = 0; i < tiles.tagCount(); i++) {
+			final NBTTagCompound tag = tiles.getCompoundTagAt(i);
+			schematic.addTileEntity(readPos(tag), tag.getCompoundTag("nbt"));
+		}
+
+		final NBTTagList entities = extra.getTagList(Names.NBT.ENTITIES, Constants.NBT.TAG_COMPOUND);
+		for (int i = 0; i < entities.tagCount(); i++) {
+			final NBTTagCompound tag = entities.getCompoundTagAt(i);
+			final UUID id = new UUID(tag.getLong("idMost"), tag.getLong("idLeast"));
+			schematic.addEntity(id, tag.getCompoundTag("nbt"), readPos(tag));
+		}
+
+		return schematic;
+	}
+
+	private static int checkCount(final int count, final int limit) throws IOException {
+		if (count < 0 || count > limit)
+			throw new IOException("Corrupt cache file");
+		return count;
+	}
+
+	// CRC of the payload plus the number of bytes it covers
+	private static final class CountingCheckedStream extends CheckedInputStream {
+
+		private long count;
+
+		public CountingCheckedStream(final InputStream in) {
+			super(in, new CRC32());
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b != -1)
+				this.count++;
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] buf, final int off, final int len) throws IOException {
+			final int n = super.read(buf, off, len);
+			if (n > 0)
+				this.count += n;
+			return n;
+		}
+	}
+
+	private static void writePos(final NBTTagCompound tag, final BlockPos pos) {
+		tag.setInteger("x", pos.getX());
+		tag.setInteger("y", pos.getY());
+		tag.setInteger("z", pos.getZ());
+	}
+
+	private static BlockPos readPos(final NBTTagCompound tag) {
+		return new BlockPos(tag.getInteger("x"), tag.getInteger("y"), tag.getInteger("z"));
+	}
+}
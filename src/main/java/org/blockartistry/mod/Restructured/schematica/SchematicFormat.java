@@ -37,6 +37,8 @@ package org.blockartistry.mod.Restructured.schematica;
 import net.minecraft.nbt.NBTTagCompound;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
@@ -47,20 +49,34 @@ public abstract class SchematicFormat {
 	public static final Map<String, SchematicFormat> FORMATS = new HashMap<String, SchematicFormat>();
 	public static String FORMAT_DEFAULT;
 
+	/**
+	 * Receives the root level tags of a schematic as they are streamed and
+	 * builds the resulting Schematic once the stream is consumed.
+	 */
+	public interface Decoder extends NBTStreamReader.Handler {
+
+		String getFormat();
+
+		Schematic build();
+	}
+
 	public abstract Schematic readFromNBT(NBTTagCompound tagCompound);
 
+	public abstract Decoder newDecoder();
+
 	public static Schematic readFromStream(InputStream stream) {
 		try {
-			final NBTTagCompound tagCompound = SchematicUtil
-					.readTagCompoundFromStream(stream);
-			final String format = tagCompound.getString(Names.NBT.MATERIALS);
-			final SchematicFormat schematicFormat = FORMATS.get(format);
+			// The format tag can appear anywhere in the stream so decode
+			// with the default format and verify once done.
+			final Decoder decoder = FORMATS.get(FORMAT_DEFAULT).newDecoder();
+			NBTStreamReader.read(stream, decoder);
 
-			if (schematicFormat == null) {
+			final String format = decoder.getFormat();
+			if (!FORMAT_DEFAULT.equals(format)) {
 				throw new UnsupportedFormatException(format);
 			}
 
-			return schematicFormat.readFromNBT(tagCompound);
+			return decoder.build();
 		} catch (final Exception ex) {
 			ModLog.error("Failed to read schematic!", ex);
 		}
@@ -69,19 +85,19 @@ public abstract class SchematicFormat {
 	}
 
 	public static Schematic readFromFile(File file) {
+		InputStream stream = null;
 		try {
-			final NBTTagCompound tagCompound = SchematicUtil
-					.readTagCompoundFromFile(file);
-			final String format = tagCompound.getString(Names.NBT.MATERIALS);
-			final SchematicFormat schematicFormat = FORMATS.get(format);
-
-			if (schematicFormat == null) {
-				throw new UnsupportedFormatException(format);
-			}
-
-			return schematicFormat.readFromNBT(tagCompound);
+			stream = new FileInputStream(file);
+			return readFromStream(stream);
 		} catch (Exception ex) {
 			ModLog.error("Failed to read schematic!", ex);
+		} finally {
+			if (stream != null)
+				try {
+					stream.close();
+				} catch (final IOException e) {
+					;
+				}
 		}
 
 		return null;
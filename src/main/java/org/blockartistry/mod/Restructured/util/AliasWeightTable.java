@@ -0,0 +1,128 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Immutable weight table that draws in constant time using Vose's alias
+ * method. The random source is supplied by the caller so a shared table does
+ * not contend on a single Random and draws can be reproduced from a seeded
+ * source such as the world generation random.
+ *
+ * Thresholds are kept in the integer weight domain so a draw is exact.
+ */
+public final class AliasWeightTable<T extends WeightTable.Item> {
+
+	private final List<T> items;
+	private final int[] threshold;
+	private final int[] alias;
+	private final int totalWeight;
+
+	public AliasWeightTable(final Collection<? extends T> entries) {
+		this.items = Collections.unmodifiableList(new ArrayList<T>(entries));
+
+		final int count = this.items.size();
+		this.threshold = new int[count];
+		this.alias = new int[count];
+
+		int total = 0;
+		for (final T item : this.items)
+			total += item.itemWeight;
+		this.totalWeight = total;
+
+		if (count == 0 || total == 0)
+			return;
+
+		// Scale each weight by the entry count so the average bucket holds
+		// exactly totalWeight. Buckets below the average borrow the rest
+		// from one that is above it.
+		final long[] scaled = new long[count];
+		final int[] small = new int[count];
+		final int[] large = new int[count];
+		int smallCount = 0;
+		int largeCount = 0;
+
+		for (int i = 0; i < count; i++) {
+			scaled[i] = (long) this.items.get(i).itemWeight * count;
+			if (scaled[i] < total)
+				small[smallCount++] = i;
+			else
+				large[largeCount++] = i;
+		}
+
+		while (smallCount > 0 && largeCount > 0) {
+			final int s = small[--smallCount];
+			final int l = large[--largeCount];
+			this.threshold[s] = (int) scaled[s];
+			this.alias[s] = l;
+			scaled[l] += scaled[s] - total;
+			if (scaled[l] < total)
+				small[smallCount++] = l;
+			else
+				large[largeCount++] = l;
+		}
+
+		// Whatever is left is full, give or take rounding
+		while (largeCount > 0) {
+			final int l = large[--largeCount];
+			this.threshold[l] = total;
+			this.alias[l] = l;
+		}
+		while (smallCount > 0) {
+			final int s = small[--smallCount];
+			this.threshold[s] = total;
+			this.alias[s] = s;
+		}
+	}
+
+	/**
+	 * Draws an entry. The table must have a positive total weight.
+	 */
+	public T next(final Random random) {
+		assert this.totalWeight > 0;
+
+		final int i = random.nextInt(this.items.size());
+		return random.nextInt(this.totalWeight) < this.threshold[i] ? this.items.get(i)
+				: this.items.get(this.alias[i]);
+	}
+
+	public int size() {
+		return this.items.size();
+	}
+
+	public List<T> getEntries() {
+		return this.items;
+	}
+
+	public int getTotalWeight() {
+		return this.totalWeight;
+	}
+}
@@ -24,31 +24,139 @@
 
 package org.blockartistry.mod.Restructured.util;
 
-import java.util.Collection;
+import java.util.List;
 
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockCrops;
 import net.minecraft.block.BlockDoor;
 import net.minecraft.block.BlockLog;
-import net.minecraft.block.BlockLog.EnumAxis;
 import net.minecraft.block.BlockTrapDoor;
 import net.minecraft.block.IGrowable;
-import net.minecraft.block.properties.IProperty;
-import net.minecraft.block.properties.PropertyDirection;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
-import net.minecraft.util.EnumFacing;
 import net.minecraftforge.common.IPlantable;
 
 public class BlockHelper {
 
-	private static final PropertyDirection FACING = PropertyDirection.create("facing");
+	// Classification bits, one per predicate below
+	public static final long AIR = 1L << 0;
+	public static final long BREATHABLE = 1L << 1;
+	public static final long CHEST = 1L << 2;
+	public static final long ANVIL = 1L << 3;
+	public static final long LADDER = 1L << 4;
+	public static final long FURNACE = 1L << 5;
+	public static final long LAVA = 1L << 6;
+	public static final long WATER = 1L << 7;
+	public static final long FIRE = 1L << 8;
+	public static final long FIRE_SOURCE = 1L << 9;
+	public static final long TORCH = 1L << 10;
+	public static final long LEVER = 1L << 11;
+	public static final long BUTTON = 1L << 12;
+	public static final long DOOR = 1L << 13;
+	public static final long SPAWNER = 1L << 14;
+	public static final long MONSTER_EGG = 1L << 15;
+	public static final long LIQUID = 1L << 16;
+	public static final long SOLID = 1L << 17;
+	public static final long PLANTABLE = 1L << 18;
+	public static final long GROWABLE = 1L << 19;
+	public static final long CROP = 1L << 20;
+	public static final long SLAB = 1L << 21;
+	public static final long LOG = 1L << 22;
+	public static final long PLANK = 1L << 23;
+
+	// Indexed by block state ID. Null until initialize() is called, in which
+	// case flags are worked out on each call.
+	private static long[] stateFlags;
 
 	private BlockHelper() {
 	}
 
+	/**
+	 * Classifies every registered block state up front so the IBlockState
+	 * predicates are a single bit test. Call once blocks have been
+	 * registered.
+	 */
+	public static void initialize() {
+		// Indexed the same way getFlags() reads it
+		final long[] result = new long[4096 << 4];
+		for (final IBlockState state : Block.BLOCK_STATE_IDS)
+			result[Block.getStateId(state)] = classify(state.getBlock());
+		stateFlags = result;
+	}
+
+	private static long classify(final Block block) {
+		long flags = 0;
+		if (isAir(block))
+			flags |= AIR;
+		if (canBreath(block))
+			flags |= BREATHABLE;
+		if (isChest(block))
+			flags |= CHEST;
+		if (isAnvil(block))
+			flags |= ANVIL;
+		if (isLadder(block))
+			flags |= LADDER;
+		if (isFurnace(block))
+			flags |= FURNACE;
+		if (isLava(block))
+			flags |= LAVA;
+		if (isWater(block))
+			flags |= WATER;
+		if (isFire(block))
+			flags |= FIRE;
+		if (isFireSource(block))
+			flags |= FIRE_SOURCE;
+		if (isTorch(block))
+			flags |= TORCH;
+		if (isLever(block))
+			flags |= LEVER;
+		if (isButton(block))
+			flags |= BUTTON;
+		if (isDoor(block))
+			flags |= DOOR;
+		if (isSpawner(block))
+			flags |= SPAWNER;
+		if (isMonsterEgg(block))
+			flags |= MONSTER_EGG;
+		if (isLiquid(block))
+			flags |= LIQUID;
+		if (isSolid(block))
+			flags |= SOLID;
+		if (isPlantable(block))
+			flags |= PLANTABLE;
+		if (isGrowable(block))
+			flags |= GROWABLE;
+		if (isCrop(block))
+			flags |= CROP;
+		if (isSlab(block))
+			flags |= SLAB;
+		if (isLog(block))
+			flags |= LOG;
+		if (isPlank(block))
+			flags |= PLANK;
+		return flags;
+	}
+
+	/**
+	 * Classification bits for the state.
+	 */
+	public static long getFlags(final IBlockState state) {
+		final long[] flags = stateFlags;
+		return flags == null ? classify(state.getBlock()) : flags[Block.getStateId(state)];
+	}
+
+	/**
+	 * Classification bits for each entry of a palette.
+	 */
+	public static long[] getFlags(final List<IBlockState> palette) {
+		final long[] result = new long[palette.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = getFlags(palette.get(i));
+		return result;
+	}
+
 	public static boolean isAir(final IBlockState state) {
-		return isAir(state.getBlock());
+		return (getFlags(state) & AIR) != 0;
 	}
 
 	public static boolean isAir(final Block block) {
@@ -56,7 +164,7 @@ public class BlockHelper {
 	}
 
 	public static boolean canBreath(final IBlockState state) {
-		return canBreath(state.getBlock());
+		return (getFlags(state) & BREATHABLE) != 0;
 	}
 
 	public static boolean canBreath(final Block block) {
@@ -64,7 +172,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isChest(final IBlockState state) {
-		return isChest(state.getBlock());
+		return (getFlags(state) & CHEST) != 0;
 	}
 
 	public static boolean isChest(final Block block) {
@@ -72,7 +180,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isAnvil(final IBlockState state) {
-		return isAnvil(state.getBlock());
+		return (getFlags(state) & ANVIL) != 0;
 	}
 
 	public static boolean isAnvil(final Block block) {
@@ -80,7 +188,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isLadder(final IBlockState state) {
-		return isLadder(state.getBlock());
+		return (getFlags(state) & LADDER) != 0;
 	}
 
 	public static boolean isLadder(final Block block) {
@@ -88,7 +196,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isFurnace(final IBlockState state) {
-		return isFurnace(state.getBlock());
+		return (getFlags(state) & FURNACE) != 0;
 	}
 
 	public static boolean isFurnace(final Block block) {
@@ -96,7 +204,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isLava(final IBlockState state) {
-		return isLava(state.getBlock());
+		return (getFlags(state) & LAVA) != 0;
 	}
 
 	public static boolean isLava(final Block block) {
@@ -104,7 +212,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isWater(final IBlockState state) {
-		return isWater(state.getBlock());
+		return (getFlags(state) & WATER) != 0;
 	}
 
 	public static boolean isWater(final Block block) {
@@ -112,7 +220,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isFire(final IBlockState state) {
-		return isFire(state.getBlock());
+		return (getFlags(state) & FIRE) != 0;
 	}
 
 	public static boolean isFire(final Block block) {
@@ -120,7 +228,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isFireSource(final IBlockState state) {
-		return isFireSource(state.getBlock());
+		return (getFlags(state) & FIRE_SOURCE) != 0;
 	}
 
 	public static boolean isFireSource(final Block block) {
@@ -128,7 +236,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isTorch(final IBlockState state) {
-		return isTorch(state.getBlock());
+		return (getFlags(state) & TORCH) != 0;
 	}
 
 	public static boolean isTorch(final Block block) {
@@ -136,7 +244,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isLever(final IBlockState state) {
-		return isLever(state.getBlock());
+		return (getFlags(state) & LEVER) != 0;
 	}
 
 	public static boolean isLever(final Block block) {
@@ -144,7 +252,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isButton(final IBlockState state) {
-		return isButton(state.getBlock());
+		return (getFlags(state) & BUTTON) != 0;
 	}
 
 	public static boolean isButton(final Block block) {
@@ -152,7 +260,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isDoor(final IBlockState state) {
-		return isDoor(state.getBlock());
+		return (getFlags(state) & DOOR) != 0;
 	}
 
 	public static boolean isDoor(final Block block) {
@@ -160,7 +268,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isSpawner(final IBlockState state) {
-		return isSpawner(state.getBlock());
+		return (getFlags(state) & SPAWNER) != 0;
 	}
 
 	public static boolean isSpawner(final Block block) {
@@ -168,7 +276,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isMonsterEgg(final IBlockState state) {
-		return isMonsterEgg(state.getBlock());
+		return (getFlags(state) & MONSTER_EGG) != 0;
 	}
 
 	public static boolean isMonsterEgg(final Block block) {
@@ -176,7 +284,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isLiquid(final IBlockState state) {
-		return isLiquid(state.getBlock());
+		return (getFlags(state) & LIQUID) != 0;
 	}
 
 	public static boolean isLiquid(final Block block) {
@@ -184,7 +292,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isSolid(final IBlockState state) {
-		return isSolid(state.getBlock());
+		return (getFlags(state) & SOLID) != 0;
 	}
 
 	public static boolean isSolid(final Block block) {
@@ -192,7 +300,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isPlantable(final IBlockState state) {
-		return isPlantable(state.getBlock());
+		return (getFlags(state) & PLANTABLE) != 0;
 	}
 
 	public static boolean isPlantable(final Block block) {
@@ -200,7 +308,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isGrowable(final IBlockState state) {
-		return isGrowable(state.getBlock());
+		return (getFlags(state) & GROWABLE) != 0;
 	}
 
 	public static boolean isGrowable(final Block block) {
@@ -208,7 +316,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isCrop(final IBlockState state) {
-		return isCrop(state.getBlock());
+		return (getFlags(state) & CROP) != 0;
 	}
 
 	public static boolean isCrop(final Block block) {
@@ -216,7 +324,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isSlab(final IBlockState state) {
-		return isSlab(state.getBlock());
+		return (getFlags(state) & SLAB) != 0;
 	}
 
 	public static boolean isSlab(final Block block) {
@@ -224,7 +332,7 @@ public class BlockHelper {
 	}
 
 	public static boolean isLog(final IBlockState state) {
-		return isLog(state.getBlock());
+		return (getFlags(state) & LOG) != 0;
 	}
 
 	public static boolean isLog(final Block block) {
@@ -232,56 +340,10 @@ public class BlockHelper {
 	}
 
 	public static boolean isPlank(final IBlockState state) {
-		return isPlank(state.getBlock());
+		return (getFlags(state) & PLANK) != 0;
 	}
 
 	public static boolean isPlank(final Block block) {
 		return block == Blocks.planks;
 	}
-
-	public static EnumFacing getOrientation(final IBlockState state) {
-		if (state.getPropertyNames().contains(FACING))
-			return state.getValue(FACING);
-		if (state.getPropertyNames().contains(BlockLog.LOG_AXIS)) {
-			final EnumAxis axis = state.getValue(BlockLog.LOG_AXIS);
-			if (axis == EnumAxis.Y)
-				return EnumFacing.UP;
-			if (axis == EnumAxis.X)
-				return EnumFacing.NORTH;
-			if (axis == EnumAxis.Z)
-				return EnumFacing.EAST;
-		}
-
-		return null;
-	}
-
-	public static IBlockState rotate(final IBlockState state, final int count) {
-
-		if (count == 0)
-			return state;
-
-		@SuppressWarnings("rawtypes")
-		Collection<IProperty> props = state.getPropertyNames();
-
-		if (props.contains(BlockLog.LOG_AXIS)) {
-			if (count == 1 || count == 3) {
-				final EnumAxis axis = state.getValue(BlockLog.LOG_AXIS);
-				if (axis == EnumAxis.Y)
-					return state;
-				return state.withProperty(BlockLog.LOG_AXIS, axis == EnumAxis.Z ? EnumAxis.X : EnumAxis.Z);
-			}
-			return state;
-		} else if (props.contains(FACING)) {
-			EnumFacing current = getOrientation(state);
-			if (current == null || current == EnumFacing.UP || current == EnumFacing.DOWN)
-				return state;
-
-			for (int i = 0; i < count; i++)
-				current = current.rotateY();
-
-			return state.withProperty(FACING, current);
-		}
-
-		return state;
-	}
 }
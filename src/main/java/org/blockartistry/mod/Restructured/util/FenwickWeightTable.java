@@ -0,0 +1,167 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Weight table that supports removal. Weights are kept in a binary indexed
+ * (Fenwick) tree so a draw, a weight change, and a removal are all
+ * O(log n). Suited to draw-and-remove selection such as picking village
+ * structures until their limits are exhausted.
+ *
+ * Entries are addressed by their position in the list the table was created
+ * with. Copies share the entry list and only duplicate the weight arrays, so
+ * a prebuilt table can be handed out cheaply for each use.
+ */
+public final class FenwickWeightTable<T extends WeightTable.Item> {
+
+	private final List<T> items;
+	private final int[] weights;
+	private final long[] tree;
+	private final int highBit;
+	private int live;
+	private int totalWeight;
+
+	public FenwickWeightTable(final Collection<? extends T> entries) {
+		this.items = Collections.unmodifiableList(new ArrayList<T>(entries));
+
+		final int count = this.items.size();
+		this.weights = new int[count];
+		this.tree = new long[count + 1];
+		this.highBit = count == 0 ? 0 : Integer.highestOneBit(count);
+
+		// Linear build: each node pushes its sum up to its parent
+		for (int i = 0; i < count; i++) {
+			final int weight = this.items.get(i).itemWeight;
+			this.weights[i] = weight;
+			this.totalWeight += weight;
+			this.live++;
+
+			final int node = i + 1;
+			this.tree[node] += weight;
+			final int parent = node + (node & -node);
+			if (parent <= count)
+				this.tree[parent] += this.tree[node];
+		}
+	}
+
+	/**
+	 * Creates an independent copy of the table in its current state.
+	 */
+	public FenwickWeightTable(final FenwickWeightTable<T> source) {
+		this.items = source.items;
+		this.weights = source.weights.clone();
+		this.tree = source.tree.clone();
+		this.highBit = source.highBit;
+		this.live = source.live;
+		this.totalWeight = source.totalWeight;
+	}
+
+	private void adjust(final int i, final int delta) {
+		for (int node = i + 1; node < this.tree.length; node += node & -node)
+			this.tree[node] += delta;
+		this.weights[i] += delta;
+		this.totalWeight += delta;
+	}
+
+	/**
+	 * Draws the index of an entry. The table must have a positive total
+	 * weight.
+	 */
+	public int nextIndex(final Random random) {
+		assert this.totalWeight > 0;
+
+		// Descend to the last position whose prefix sum is <= target; the
+		// entry after it is the one that covers the target.
+		long target = random.nextInt(this.totalWeight);
+		int pos = 0;
+		for (int step = this.highBit; step > 0; step >>= 1) {
+			final int next = pos + step;
+			if (next < this.tree.length && this.tree[next] <= target) {
+				pos = next;
+				target -= this.tree[next];
+			}
+		}
+
+		return pos;
+	}
+
+	/**
+	 * Draws an entry. The table must have a positive total weight.
+	 */
+	public T next(final Random random) {
+		return this.items.get(nextIndex(random));
+	}
+
+	public T get(final int index) {
+		return this.items.get(index);
+	}
+
+	/**
+	 * Changes the weight of an entry. A weight of 0 excludes it from draws
+	 * but it still counts toward size(). Removed entries are left alone.
+	 */
+	public void setWeight(final int index, final int weight) {
+		final int current = this.weights[index];
+		if (current >= 0 && current != weight)
+			adjust(index, weight - current);
+	}
+
+	/**
+	 * Removes an entry from further draws.
+	 */
+	public void remove(final int index) {
+		if (this.weights[index] < 0)
+			return;
+		adjust(index, -this.weights[index]);
+		// Mark as removed so a second remove is a no-op
+		this.weights[index] = -1;
+		this.live--;
+	}
+
+	/**
+	 * Number of entries that have not been removed.
+	 */
+	public int size() {
+		return this.live;
+	}
+
+	/**
+	 * Entries the table was created with, including any since removed.
+	 */
+	public List<T> getEntries() {
+		return this.items;
+	}
+
+	public int getTotalWeight() {
+		return this.totalWeight;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.blockartistry.mod.Restructured.util;
+
+/**
+ * Fixed length array of small unsigned integers packed into longs. Entries
+ * never straddle a word boundary so a read is a single shift and mask.
+ */
+public final class PackedIntArray {
+
+	private final long[] data;
+	private final int bitsPerEntry;
+	private final int entriesPerWord;
+	private final long mask;
+	private final int size;
+
+	public PackedIntArray(final int bitsPerEntry, final int size) {
+		if (bitsPerEntry < 1 || bitsPerEntry > 32)
+			throw new IllegalArgumentException("Invalid bits per entry: " + bitsPerEntry);
+
+		this.bitsPerEntry = bitsPerEntry;
+		this.entriesPerWord = 64 / bitsPerEntry;
+		this.mask = (1L << bitsPerEntry) - 1;
+		this.size = size;
+		this.data = new long[(size + this.entriesPerWord - 1) / this.entriesPerWord];
+	}
+
+	/**
+	 * Wraps existing packed data, such as data read back from disk.
+	 */
+	public PackedIntArray(final int bitsPerEntry, final int size, final long[] words) {
+		this(bitsPerEntry, size);
+		if (words.length != this.data.length)
+			throw new IllegalArgumentException("Packed data length does not match size");
+		System.arraycopy(words, 0, this.data, 0, words.length);
+	}
+
+	/**
+	 * Number of bits needed to represent values in the range [0, count).
+	 */
+	public static int bitsFor(final int count) {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(count - 1, 1)));
+	}
+
+	public int get(final int index) {
+		final int shift = (index % this.entriesPerWord) * this.bitsPerEntry;
+		return (int) ((this.data[index / this.entriesPerWord] >>> shift) & this.mask);
+	}
+
+	public void set(final int index, final int value) {
+		final int word = index / this.entriesPerWord;
+		final int shift = (index % this.entriesPerWord) * this.bitsPerEntry;
+		this.data[word] = (this.data[word] & ~(this.mask << shift)) | ((value & this.mask) << shift);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getBitsPerEntry() {
+		return this.bitsPerEntry;
+	}
+
+	public long[] getWords() {
+		return this.data;
+	}
+
+	/**
+	 * Copies the content into a new array with a different entry width. Used
+	 * when a palette outgrows the current width.
+	 */
+	public PackedIntArray resize(final int newBitsPerEntry) {
+		final PackedIntArray result = new PackedIntArray(newBitsPerEntry, this.size);
+		for (int i = 0; i < this.size; i++)
+			result.set(i, get(i));
+		return result;
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.blockartistry.mod.Restructured.ModLog;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.properties.IProperty;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.EnumFacing;
+
+/**
+ * Lookup table giving the state a block takes on when a structure is placed
+ * in a given orientation. The table is built once from the block state
+ * registry so placement is an array lookup rather than a walk over the
+ * properties of every block.
+ *
+ * Orientations follow StructureComponent: EAST and WEST turn the structure
+ * while NORTH mirrors it, so a direction is not simply rotated a fixed
+ * number of times. Any enum property whose value names are made up of
+ * directions or axes (facing, log and pillar axes, rails, levers) is
+ * transformed, as are side flags such as those on vines.
+ */
+public final class RotationTable {
+
+	private static final int STATE_COUNT = 4096 << 4;
+
+	// Indexed by the horizontal index of the orientation, then state ID
+	private static char[][] table;
+
+	private RotationTable() {
+	}
+
+	/**
+	 * Builds the table. Call once blocks have been registered.
+	 */
+	public static void initialize() {
+		final char[][] result = new char[EnumFacing.HORIZONTALS.length][STATE_COUNT];
+		int rotatable = 0;
+
+		for (final EnumFacing orientation : EnumFacing.HORIZONTALS) {
+			final char[] ids = result[orientation.getHorizontalIndex()];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = (char) i;
+
+			for (final IBlockState state : Block.BLOCK_STATE_IDS) {
+				final IBlockState transformed = transform(state, orientation);
+				if (transformed != state) {
+					ids[Block.getStateId(state)] = (char) Block.getStateId(transformed);
+					rotatable++;
+				}
+			}
+		}
+
+		table = result;
+		ModLog.debug("Rotation table built: %d transformed states", rotatable);
+	}
+
+	/**
+	 * The state to place for a schematic state when the structure has the
+	 * given orientation. A null orientation leaves the state as is.
+	 */
+	public static IBlockState getState(final IBlockState state, final EnumFacing orientation) {
+		if (orientation == null)
+			return state;
+
+		final int id = Block.getStateId(state);
+		final int rotated = table[orientation.getHorizontalIndex()][id];
+		return rotated == id ? state : Block.getStateById(rotated);
+	}
+
+	/**
+	 * Number of clockwise turns a direction takes in the orientation.
+	 */
+	public static int getRotationCount(final EnumFacing orientation, final EnumFacing dir) {
+		int count = 0;
+		if (orientation != null && dir != null) {
+			if (orientation == EnumFacing.WEST || orientation == EnumFacing.EAST)
+				count = 1;
+
+			if ((orientation == EnumFacing.NORTH || orientation == EnumFacing.EAST)
+					&& (dir == EnumFacing.NORTH || dir == EnumFacing.SOUTH))
+				count += 2;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Direction a horizontal direction takes in the orientation. Up and down
+	 * are unchanged.
+	 */
+	public static EnumFacing getDirection(final EnumFacing orientation, final EnumFacing dir) {
+		if (dir == null || dir.getAxis() == EnumFacing.Axis.Y)
+			return dir;
+
+		switch (getRotationCount(orientation, dir)) {
+		case 1:
+			return dir.rotateY();
+		case 2:
+			return dir.getOpposite();
+		case 3:
+			return dir.rotateYCCW();
+		case 0:
+		default:
+			return dir;
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static IBlockState transform(final IBlockState state, final EnumFacing orientation) {
+		IBlockState result = state;
+		final Collection<IProperty> props = state.getPropertyNames();
+
+		for (final IProperty prop : props) {
+			final Comparable value = state.getValue(prop);
+
+			if (value instanceof Enum) {
+				final Comparable target = transformEnum(prop, (Enum) value, orientation);
+				if (target != value)
+					result = result.withProperty(prop, target);
+			} else if (value instanceof Boolean) {
+				// Side flags: the value for a side moves to the side it
+				// turns into
+				final EnumFacing side = getHorizontal(prop.getName());
+				if (side == null)
+					continue;
+				final EnumFacing target = getDirection(orientation, side);
+				if (target == side)
+					continue;
+				for (final IProperty other : props)
+					if (other.getName().equals(target.getName()) && other.getValueClass() == Boolean.class)
+						result = result.withProperty(other, value);
+			}
+		}
+
+		return result;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Comparable transformEnum(final IProperty prop, final Enum value, final EnumFacing orientation) {
+		final String[] tokens = value.name().split("_");
+		boolean changed = false;
+		for (int i = 0; i < tokens.length; i++) {
+			final String token = transformToken(tokens[i], orientation);
+			if (!token.equals(tokens[i])) {
+				tokens[i] = token;
+				changed = true;
+			}
+		}
+
+		if (!changed)
+			return value;
+
+		// Look for the value made of the same tokens, such as SOUTH_EAST
+		// becoming SOUTH_WEST rather than WEST_SOUTH
+		final String key = getKey(tokens);
+		for (final Object candidate : prop.getAllowedValues())
+			if (candidate instanceof Enum && getKey(((Enum) candidate).name().split("_")).equals(key))
+				return (Comparable) candidate;
+
+		return value;
+	}
+
+	private static String transformToken(final String token, final EnumFacing orientation) {
+		final boolean turned = orientation == EnumFacing.WEST || orientation == EnumFacing.EAST;
+		if (turned && "X".equals(token))
+			return "Z";
+		if (turned && "Z".equals(token))
+			return "X";
+
+		for (final EnumFacing side : EnumFacing.HORIZONTALS)
+			if (side.name().equals(token))
+				return getDirection(orientation, side).name();
+
+		return token;
+	}
+
+	private static String getKey(final String[] tokens) {
+		final String[] sorted = tokens.clone();
+		Arrays.sort(sorted);
+		return Arrays.toString(sorted);
+	}
+
+	private static EnumFacing getHorizontal(final String name) {
+		for (final EnumFacing side : EnumFacing.HORIZONTALS)
+			if (side.getName().equals(name))
+				return side;
+		return null;
+	}
+}
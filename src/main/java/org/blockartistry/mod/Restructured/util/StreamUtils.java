@@ -24,6 +24,7 @@
 
 package org.blockartistry.mod.Restructured.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
@@ -43,6 +44,12 @@ public final class StreamUtils {
 			output.write(buffer, 0, read);
 	}
 	
+	public static byte[] toByteArray(final InputStream input) throws Exception {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		copy(input, output);
+		return output.toByteArray();
+	}
+
 	public static void copy(final InputStream input, final File output) throws Exception {
 		OutputStream stream = null;
 		try {
@@ -24,48 +24,46 @@
 
 package org.blockartistry.mod.Restructured.world;
 
-import java.util.Random;
-
 import net.minecraft.world.World;
 import net.minecraft.world.biome.BiomeGenBase;
-import net.minecraft.world.chunk.Chunk;
 
 public final class BiomeHelper {
 
-	// Horseshoes and hand grenades...
-	private final static int SAMPLES = 32;
-
 	private BiomeHelper() {
 	}
 
 	/**
-	 * Analyze the chunk to estimate the predominant biome that is present. The
-	 * predominant biome will be used to filter the weight list and make further
-	 * decisions.
-	 * 
-	 * Check ChunkProviderGenerate for some detail as to the chunk biome array.
+	 * Estimates the predominant biome of the area a structure starting at
+	 * the location could cover. The biome provider is sampled on its quarter
+	 * resolution grid, one sample per 4x4 blocks, over a square of the given
+	 * span centered on the location. No chunk needs to exist.
 	 * 
 	 * @param world
 	 *            Current world
-	 * @param chunk
-	 *            The chunk to analyze
-	 * @return Estimated predominant biome in the indicated chunk
+	 * @param x
+	 *            X of the structure start
+	 * @param z
+	 *            Z of the structure start
+	 * @param span
+	 *            Largest horizontal extent of a structure, in blocks
+	 * @return Estimated predominant biome in the area
 	 */
-	public static BiomeGenBase chunkBiomeSurvey(final World world, final Chunk chunk, final Random rand) {
+	public static BiomeGenBase footprintBiomeSurvey(final World world, final int x, final int z, final int span) {
 
-		final byte[] biomes = chunk.getBiomeArray();
-		final int[] counts = new int[biomes.length];
+		final int half = span >> 1;
+		final int size = Math.max(1, (span >> 2) + 1);
+		final BiomeGenBase[] biomes = world.getWorldChunkManager().getBiomesForGeneration(null, (x - half) >> 2,
+				(z - half) >> 2, size, size);
+		final int[] counts = new int[256];
 
 		int highIndex = BiomeGenBase.plains.biomeID;
 		int highCount = -1;
 
-		for (int i = 0; i < SAMPLES; i++) {
-			final int id = biomes[rand.nextInt(biomes.length)] & 255;
-
-			// -1 in byte terms
-			if (id == 255)
+		for (final BiomeGenBase biome : biomes) {
+			if (biome == null)
 				continue;
 
+			final int id = biome.biomeID & 255;
 			if (++counts[id] > highCount) {
 				highIndex = id;
 				highCount = counts[id];
@@ -0,0 +1,192 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.world;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.BlockPos;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+
+/**
+ * Collects block placements and writes them straight into the chunk section
+ * storage, bypassing World.setBlockState(). Lighting is deferred for the
+ * lifetime of the writer: flush() only writes blocks, and finish() recomputes
+ * the height maps of the chunks under the changed blocks and then relights
+ * the box around every block that was changed in one sweep with LightHelper.
+ *
+ * A single writer is meant to span the whole build of a structure, terrain
+ * preparation included, so that blocks overwritten during the build are not
+ * lit at all.
+ *
+ * No block callbacks (onBlockAdded, neighbor updates) are made so it should
+ * only be handed blocks that do not depend on them.
+ */
+public final class BulkBlockWriter {
+
+	private static final class Batch {
+		public final int chunkX;
+		public final int chunkZ;
+		public final List<BlockPos> positions = new ArrayList<BlockPos>();
+		public final List<IBlockState> states = new ArrayList<IBlockState>();
+
+		public Batch(final int chunkX, final int chunkZ) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+	}
+
+	private static final String NBT_PENDING = "pendingLight";
+
+	private final World world;
+	private final Map<Long, Batch> batches = new LinkedHashMap<Long, Batch>();
+
+	// Bounds of the blocks changed since the last finish(); null if none
+	private StructureBoundingBox touched;
+
+	public BulkBlockWriter(final World world) {
+		this.world = world;
+	}
+
+	public void setBlockState(final BlockPos pos, final IBlockState state) {
+		final int chunkX = pos.getX() >> 4;
+		final int chunkZ = pos.getZ() >> 4;
+		final Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+		Batch batch = this.batches.get(key);
+		if (batch == null) {
+			batch = new Batch(chunkX, chunkZ);
+			this.batches.put(key, batch);
+		}
+		batch.positions.add(pos);
+		batch.states.add(state);
+	}
+
+	/**
+	 * Writes out everything collected so far. Lighting is left for finish().
+	 */
+	public void flush() {
+		final boolean hasSky = !this.world.provider.getHasNoSky();
+
+		for (final Batch batch : this.batches.values()) {
+			final Chunk chunk = this.world.getChunkFromChunkCoords(batch.chunkX, batch.chunkZ);
+			final ExtendedBlockStorage[] storage = chunk.getBlockStorageArray();
+			boolean changed = false;
+
+			for (int i = 0; i < batch.positions.size(); i++) {
+				final BlockPos pos = batch.positions.get(i);
+				final IBlockState state = batch.states.get(i);
+				final int y = pos.getY();
+				if (y < 0 || y >= 256)
+					continue;
+
+				ExtendedBlockStorage section = storage[y >> 4];
+				if (section == null) {
+					// Air into an empty section is a no-op
+					if (state.getBlock() == Blocks.air)
+						continue;
+					section = storage[y >> 4] = new ExtendedBlockStorage(y >> 4 << 4, hasSky);
+				}
+
+				final int x = pos.getX() & 15;
+				final int z = pos.getZ() & 15;
+				final IBlockState old = section.get(x, y & 15, z);
+				if (old == state)
+					continue;
+
+				final Block oldBlock = old.getBlock();
+				if (oldBlock.hasTileEntity(old))
+					this.world.removeTileEntity(pos);
+
+				section.set(x, y & 15, z, state);
+				changed = true;
+
+				if (this.touched == null) {
+					this.touched = new StructureBoundingBox(pos, pos);
+				} else {
+					final StructureBoundingBox t = this.touched;
+					t.minX = Math.min(t.minX, pos.getX());
+					t.minY = Math.min(t.minY, y);
+					t.minZ = Math.min(t.minZ, pos.getZ());
+					t.maxX = Math.max(t.maxX, pos.getX());
+					t.maxY = Math.max(t.maxY, y);
+					t.maxZ = Math.max(t.maxZ, pos.getZ());
+				}
+
+				// Lets any watching clients know. Cheap compared to the
+				// chunk lookup and lighting that setBlockState() does.
+				this.world.markBlockForUpdate(pos);
+			}
+
+			if (changed)
+				chunk.setChunkModified();
+		}
+
+		this.batches.clear();
+	}
+
+	/**
+	 * Flushes and then relights everything written since the writer was
+	 * created in one sweep.
+	 */
+	public void finish() {
+		flush();
+
+		if (this.touched == null)
+			return;
+
+		final StructureBoundingBox t = this.touched;
+		for (int chunkX = t.minX >> 4; chunkX <= t.maxX >> 4; chunkX++)
+			for (int chunkZ = t.minZ >> 4; chunkZ <= t.maxZ >> 4; chunkZ++)
+				this.world.getChunkFromChunkCoords(chunkX, chunkZ).generateSkylightMap();
+
+		LightHelper.relight(this.world, t);
+		this.touched = null;
+	}
+
+	/**
+	 * Saves the bounds still waiting for finish() so a build that is
+	 * persisted part way through is lit when it is resumed and completes.
+	 */
+	public void writeToNBT(final NBTTagCompound nbt) {
+		if (this.touched != null)
+			nbt.setTag(NBT_PENDING, this.touched.toNBTTagIntArray());
+	}
+
+	public void readFromNBT(final NBTTagCompound nbt) {
+		if (nbt.hasKey(NBT_PENDING))
+			this.touched = new StructureBoundingBox(nbt.getIntArray(NBT_PENDING));
+	}
+}
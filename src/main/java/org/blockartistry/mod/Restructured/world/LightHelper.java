@@ -0,0 +1,221 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.blockartistry.mod.Restructured.world;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.BlockPos;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+
+/**
+ * Relights a box of blocks in one sweep. Light inside the box is thrown away
+ * and worked out again from the light sources and open sky within it and the
+ * light of the blocks around it, using the same falloff rules as
+ * World.checkLightFor(). Blocks on the outside of the box whose light ended
+ * up different are handed to checkLightFor() so the change carries on past
+ * the box.
+ *
+ * The chunks covering the box are expected to be loaded. Neighbors in chunks
+ * that are not loaded are treated as dark rather than loaded.
+ */
+public final class LightHelper {
+
+	private LightHelper() {
+	}
+
+	/**
+	 * Relights sky light, if the world has any, and block light within the
+	 * box. The chunk height maps must already be current.
+	 */
+	public static void relight(final World world, final StructureBoundingBox box) {
+		final int minY = Math.max(box.minY, 0);
+		final int maxY = Math.min(box.maxY, 255);
+		if (minY > maxY)
+			return;
+
+		final StructureBoundingBox area = new StructureBoundingBox(box.minX, minY, box.minZ, box.maxX, maxY,
+				box.maxZ);
+		if (!world.provider.getHasNoSky())
+			relight(world, area, EnumSkyBlock.SKY);
+		relight(world, area, EnumSkyBlock.BLOCK);
+	}
+
+	private static void relight(final World world, final StructureBoundingBox box, final EnumSkyBlock type) {
+		final int sizeX = box.getXSize();
+		final int sizeY = box.getYSize();
+		final int sizeZ = box.getZSize();
+		final int volume = sizeX * sizeY * sizeZ;
+
+		// Cells are indexed x, then z, then y so a column is contiguous
+		final byte[] light = new byte[volume];
+		final byte[] old = new byte[volume];
+		final byte[] opacity = new byte[volume];
+
+		// Seed each cell with what it gives off and record what it had
+		for (int x = 0; x < sizeX; x++)
+			for (int z = 0; z < sizeZ; z++) {
+				final int worldX = box.minX + x;
+				final int worldZ = box.minZ + z;
+				final Chunk chunk = world.getChunkFromChunkCoords(worldX >> 4, worldZ >> 4);
+				final ExtendedBlockStorage[] storage = chunk.getBlockStorageArray();
+				final int height = chunk.getHeightValue(worldX & 15, worldZ & 15);
+				int i = index(x, 0, z, sizeY, sizeZ);
+				for (int y = 0; y < sizeY; y++, i++) {
+					final int worldY = box.minY + y;
+					final ExtendedBlockStorage section = storage[worldY >> 4];
+					final IBlockState state = section == null ? Blocks.air.getDefaultState()
+							: section.get(worldX & 15, worldY & 15, worldZ & 15);
+					final Block block = state.getBlock();
+					opacity[i] = (byte) Math.max(1, Math.min(15, block.getLightOpacity()));
+					old[i] = (byte) chunk.getLightFor(type, new BlockPos(worldX, worldY, worldZ));
+					if (type == EnumSkyBlock.SKY)
+						light[i] = (byte) (worldY >= height ? 15 : 0);
+					else
+						light[i] = (byte) block.getLightValue();
+				}
+			}
+
+		// Light coming in from outside the box
+		final IntQueue queue = new IntQueue(volume);
+		for (int x = 0; x < sizeX; x++)
+			for (int z = 0; z < sizeZ; z++)
+				for (int y = 0; y < sizeY; y++) {
+					final int i = index(x, y, z, sizeY, sizeZ);
+					if (x == 0 || z == 0 || y == 0 || x == sizeX - 1 || z == sizeZ - 1 || y == sizeY - 1) {
+						for (final EnumFacing f : EnumFacing.VALUES) {
+							final int nx = x + f.getFrontOffsetX();
+							final int ny = y + f.getFrontOffsetY();
+							final int nz = z + f.getFrontOffsetZ();
+							if (nx >= 0 && nx < sizeX && ny >= 0 && ny < sizeY && nz >= 0 && nz < sizeZ)
+								continue;
+							final BlockPos pos = new BlockPos(box.minX + nx, box.minY + ny, box.minZ + nz);
+							if (pos.getY() < 0 || pos.getY() > 255 || !world.isBlockLoaded(pos))
+								continue;
+							final int level = world.getLightFor(type, pos) - opacity[i];
+							if (level > light[i])
+								light[i] = (byte) level;
+						}
+					}
+					if (light[i] > 1)
+						queue.add(i);
+				}
+
+		// Spread it through the box
+		while (!queue.isEmpty()) {
+			final int i = queue.remove();
+			final int y = i % sizeY;
+			final int z = (i / sizeY) % sizeZ;
+			final int x = i / (sizeY * sizeZ);
+			for (final EnumFacing f : EnumFacing.VALUES) {
+				final int nx = x + f.getFrontOffsetX();
+				final int ny = y + f.getFrontOffsetY();
+				final int nz = z + f.getFrontOffsetZ();
+				if (nx < 0 || nx >= sizeX || ny < 0 || ny >= sizeY || nz < 0 || nz >= sizeZ)
+					continue;
+				final int j = index(nx, ny, nz, sizeY, sizeZ);
+				final int level = light[i] - opacity[j];
+				if (level > light[j]) {
+					light[j] = (byte) level;
+					if (level > 1)
+						queue.add(j);
+				}
+			}
+		}
+
+		// Write back. Cells on the outside that changed get their old value
+		// back and a recheck, which carries the change past the box.
+		for (int x = 0; x < sizeX; x++)
+			for (int z = 0; z < sizeZ; z++) {
+				final int worldX = box.minX + x;
+				final int worldZ = box.minZ + z;
+				final Chunk chunk = world.getChunkFromChunkCoords(worldX >> 4, worldZ >> 4);
+				int i = index(x, 0, z, sizeY, sizeZ);
+				for (int y = 0; y < sizeY; y++, i++) {
+					if (light[i] != old[i]) {
+						final BlockPos pos = new BlockPos(worldX, box.minY + y, worldZ);
+						chunk.setLightFor(type, pos, light[i]);
+					}
+				}
+			}
+
+		for (int x = 0; x < sizeX; x++)
+			for (int z = 0; z < sizeZ; z++)
+				for (int y = 0; y < sizeY; y++) {
+					if (x != 0 && z != 0 && y != 0 && x != sizeX - 1 && z != sizeZ - 1 && y != sizeY - 1)
+						continue;
+					final int i = index(x, y, z, sizeY, sizeZ);
+					if (light[i] == old[i])
+						continue;
+					final BlockPos pos = new BlockPos(box.minX + x, box.minY + y, box.minZ + z);
+					world.getChunkFromBlockCoords(pos).setLightFor(type, pos, old[i]);
+					world.checkLightFor(type, pos);
+				}
+	}
+
+	private static int index(final int x, final int y, final int z, final int sizeY, final int sizeZ) {
+		return (x * sizeZ + z) * sizeY + y;
+	}
+
+	// Growable FIFO of cell indices. A cell goes in each time its light
+	// rises so it can appear more than once.
+	private static final class IntQueue {
+		private int[] data;
+		private int head;
+		private int tail;
+
+		public IntQueue(final int capacity) {
+			this.data = new int[Math.max(16, capacity)];
+		}
+
+		public boolean isEmpty() {
+			return this.head == this.tail;
+		}
+
+		public void add(final int value) {
+			if (this.tail == this.data.length) {
+				if (this.head > this.data.length / 2) {
+					System.arraycopy(this.data, this.head, this.data, 0, this.tail - this.head);
+				} else {
+					final int[] grown = new int[this.data.length * 2];
+					System.arraycopy(this.data, this.head, grown, 0, this.tail - this.head);
+					this.data = grown;
+				}
+				this.tail -= this.head;
+				this.head = 0;
+			}
+			this.data[this.tail++] = value;
+		}
+
+		public int remove() {
+			return this.data[this.head++];
+		}
+	}
+}
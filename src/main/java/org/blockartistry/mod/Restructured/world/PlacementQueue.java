@@ -0,0 +1,145 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.world;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.blockartistry.mod.Restructured.ModLog;
+import org.blockartistry.mod.Restructured.component.CopyStructureBuilder;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * Structures waiting to be placed in a world. Jobs run oldest first and the
+ * progress of each is saved with the world so a build that is interrupted
+ * by a server stop picks up where it left off.
+ */
+public final class PlacementQueue extends WorldSavedData {
+
+	public static final String IDENTIFIER = "RestructuredPlacement";
+
+	private static final String NBT_JOBS = "jobs";
+	private static final String NBT_STRUCTURE = "structure";
+	private static final String NBT_PROGRESS = "progress";
+
+	private static final class Job {
+		public final SchematicWorldGenStructure structure;
+		public final CopyStructureBuilder builder;
+
+		public Job(final SchematicWorldGenStructure structure, final CopyStructureBuilder builder) {
+			this.structure = structure;
+			this.builder = builder;
+		}
+	}
+
+	private final List<Job> jobs = new ArrayList<Job>();
+
+	// Jobs read from disk; turned into Jobs once a World is available
+	private NBTTagList restored = null;
+
+	public PlacementQueue(final String id) {
+		super(id);
+	}
+
+	public void add(final SchematicWorldGenStructure structure, final CopyStructureBuilder builder) {
+		this.jobs.add(new Job(structure, builder));
+		markDirty();
+	}
+
+	public boolean isEmpty() {
+		return this.jobs.isEmpty() && this.restored == null;
+	}
+
+	private void restore(final World world) {
+		for (int i = 0; i < this.restored.tagCount(); i++) {
+			final NBTTagCompound tag = this.restored.getCompoundTagAt(i);
+			final NBTTagCompound s = tag.getCompoundTag(NBT_STRUCTURE);
+			final SchematicWorldGenStructure structure = SchematicWorldGenStructure.readFromNBT(world, s);
+			if (structure == null) {
+				ModLog.warn("Dropping placement of unknown schematic [%s]", s.getString("name"));
+				continue;
+			}
+			final CopyStructureBuilder builder = structure.getBuilder();
+			builder.readFromNBT(tag.getCompoundTag(NBT_PROGRESS));
+			this.jobs.add(new Job(structure, builder));
+			ModLog.debug("Resuming placement of [%s]", structure.getName());
+		}
+		this.restored = null;
+		markDirty();
+	}
+
+	/**
+	 * Advances the oldest job within the budget.
+	 */
+	public void run(final World world, final int blockBudget, final long deadline) {
+		if (this.restored != null)
+			restore(world);
+
+		if (this.jobs.isEmpty())
+			return;
+
+		final Job job = this.jobs.get(0);
+		if (job.builder.step(blockBudget, deadline)) {
+			this.jobs.remove(0);
+			ModLog.debug("Finished placement of [%s]", job.structure.getName());
+		}
+		markDirty();
+	}
+
+	@Override
+	public void readFromNBT(final NBTTagCompound nbt) {
+		this.jobs.clear();
+		this.restored = nbt.getTagList(NBT_JOBS, Constants.NBT.TAG_COMPOUND);
+		if (this.restored.tagCount() == 0)
+			this.restored = null;
+	}
+
+	@Override
+	public void writeToNBT(final NBTTagCompound nbt) {
+		final NBTTagList list = new NBTTagList();
+		if (this.restored != null)
+			for (int i = 0; i < this.restored.tagCount(); i++)
+				list.appendTag(this.restored.getCompoundTagAt(i));
+
+		for (final Job job : this.jobs) {
+			final NBTTagCompound structure = new NBTTagCompound();
+			job.structure.writeToNBT(structure);
+			final NBTTagCompound progress = new NBTTagCompound();
+			job.builder.writeToNBT(progress);
+
+			final NBTTagCompound tag = new NBTTagCompound();
+			tag.setTag(NBT_STRUCTURE, structure);
+			tag.setTag(NBT_PROGRESS, progress);
+			list.appendTag(tag);
+		}
+		nbt.setTag(NBT_JOBS, list);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.world;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.blockartistry.mod.Restructured.ModOptions;
+import org.blockartistry.mod.Restructured.component.CopyStructureBuilder;
+
+import net.minecraft.world.World;
+import net.minecraft.world.storage.MapStorage;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+/**
+ * Drives incremental structure placement. Each server world tick the oldest
+ * pending structure in that world gets a slice of work bounded by the
+ * configured block and time budgets.
+ */
+public final class PlacementScheduler {
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	// Only worlds that have, or had, something queued
+	private static final Map<World, PlacementQueue> queues = new IdentityHashMap<World, PlacementQueue>();
+
+	private PlacementScheduler() {
+	}
+
+	public static void initialize() {
+		MinecraftForge.EVENT_BUS.register(new PlacementScheduler());
+	}
+
+	private static PlacementQueue getQueue(final World world, final boolean create) {
+		PlacementQueue queue = queues.get(world);
+		if (queue == null) {
+			final MapStorage storage = world.getPerWorldStorage();
+			queue = (PlacementQueue) storage.loadData(PlacementQueue.class, PlacementQueue.IDENTIFIER);
+			if (queue == null && create) {
+				queue = new PlacementQueue(PlacementQueue.IDENTIFIER);
+				storage.setData(PlacementQueue.IDENTIFIER, queue);
+			}
+			if (queue != null)
+				queues.put(world, queue);
+		}
+		return queue;
+	}
+
+	public static void schedule(final World world, final SchematicWorldGenStructure structure,
+			final CopyStructureBuilder builder) {
+		getQueue(world, true).add(structure, builder);
+	}
+
+	@SubscribeEvent
+	public void onWorldLoad(final WorldEvent.Load event) {
+		// Picks up work left over from the last session
+		if (!event.world.isRemote)
+			getQueue(event.world, false);
+	}
+
+	@SubscribeEvent
+	public void onWorldUnload(final WorldEvent.Unload event) {
+		queues.remove(event.world);
+	}
+
+	@SubscribeEvent
+	public void onWorldTick(final TickEvent.WorldTickEvent event) {
+		if (event.phase != TickEvent.Phase.END || event.world.isRemote)
+			return;
+
+		final PlacementQueue queue = queues.get(event.world);
+		if (queue == null || queue.isEmpty())
+			return;
+
+		final int millis = ModOptions.getPlacementTimeBudget();
+		final long deadline = millis == 0 ? 0 : System.nanoTime() + millis * NANOS_PER_MILLI;
+		queue.run(event.world, ModOptions.getPlacementBlockBudget(), deadline);
+	}
+}
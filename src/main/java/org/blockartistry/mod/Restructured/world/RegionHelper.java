@@ -24,8 +24,13 @@
 
 package org.blockartistry.mod.Restructured.world;
 
+import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.init.Blocks;
 import net.minecraft.util.BlockPos;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 public final class RegionHelper {
@@ -40,44 +45,102 @@ public final class RegionHelper {
 		public int variance;
 		public int water;
 
+		// False if the survey stopped early
+		public boolean complete;
+
 		@Override
 		public String toString() {
-			return String.format("[area: %d; mean: %d; variance: %d, water: %d]", area, mean, variance, water);
+			return String.format("[area: %d; mean: %d; variance: %d, water: %d, complete: %s]", area, mean, variance,
+					water, complete);
 		}
 	};
 
-	// Note that this routine can trigger chunk loading and generation
-	// as it traverses a region.
-	public static RegionStats getRegionStatsWithVariance(final World world, final StructureBoundingBox worldBB) {
+	/**
+	 * Surveys the terrain heights of the region. The scan stops early once
+	 * the variance is certain to exceed varianceLimit or the number of
+	 * water columns exceeds waterLimit; the stats are then partial and
+	 * complete is false. Pass Integer.MAX_VALUE for no limit.
+	 * 
+	 * Heights are found the way World.getTopSolidOrLiquidBlock() does, by
+	 * walking down from the top filled section to the first block that blocks
+	 * movement, skipping leaves. Empty sections are skipped whole.
+	 */
+	public static RegionStats getRegionStatsWithVariance(final World world, final StructureBoundingBox worldBB,
+			final int varianceLimit, final int waterLimit) {
 
 		final int avgGroundLevel = world.provider.getAverageGroundLevel() - 1;
 		final RegionStats result = new RegionStats();
 		result.area = worldBB.getXSize() * worldBB.getZSize();
 
-		final int[] data = new int[result.area];
-		int total = 0;
-		int index = 0;
+		// Welford's running mean and sum of squared deviations. The sum
+		// only grows, so once it passes this the final variance rounds
+		// above the limit whatever the remaining columns hold.
+		final double m2Limit = (varianceLimit + 0.5D) * result.area;
+		double mean = 0.0D;
+		double m2 = 0.0D;
+		int count = 0;
 
+		Chunk chunk = null;
 		for (int z = worldBB.minZ; z <= worldBB.maxZ; ++z)
 			for (int x = worldBB.minX; x <= worldBB.maxX; ++x) {
-				int val = Math.max(world.getTopSolidOrLiquidBlock(new BlockPos(x, 1, z)).getY(), avgGroundLevel);
-				total += val;
-				data[index++] = val;
-				if (world.getBlockState(new BlockPos(x, val - 1, z)).getBlock().getMaterial().isLiquid())
+				if (chunk == null || chunk.xPosition != (x >> 4) || chunk.zPosition != (z >> 4))
+					chunk = world.getChunkFromChunkCoords(x >> 4, z >> 4);
+
+				final int val = Math.max(getTopSolidOrLiquid(chunk, x & 15, z & 15), avgGroundLevel);
+				count++;
+				final double delta = val - mean;
+				mean += delta / count;
+				m2 += delta * (val - mean);
+
+				if (getBlock(chunk, x & 15, val - 1, z & 15).getMaterial().isLiquid())
 					result.water++;
+
+				if (result.water > waterLimit || m2 > m2Limit) {
+					result.complete = false;
+					setResults(result, mean, m2, count);
+					return result;
+				}
 			}
 
-		result.mean = Math.round((float) total / (float) index);
+		result.complete = true;
+		setResults(result, mean, m2, count);
+		return result;
+	}
 
-		int accum = 0;
-		for (int i = 0; i < index; i++) {
-			int t = data[i] - result.mean;
-			accum += (t * t);
-		}
+	private static void setResults(final RegionStats result, final double mean, final double m2, final int count) {
+		if (count == 0)
+			return;
+		result.mean = Math.round((float) mean);
+		// Deviations are taken from the rounded mean as they always have
+		final double offset = mean - result.mean;
+		result.variance = (int) Math.round((m2 + count * offset * offset) / count);
+	}
 
-		result.variance = Math.round((float) accum / (float) index);
+	private static Block getBlock(final Chunk chunk, final int x, final int y, final int z) {
+		if (y < 0 || y > 255)
+			return Blocks.air;
+		final ExtendedBlockStorage section = chunk.getBlockStorageArray()[y >> 4];
+		return section == null ? Blocks.air : section.getBlockByExtId(x, y & 15, z);
+	}
 
-		return result;
+	// Y of the block above the highest block that blocks movement, not
+	// counting leaves
+	private static int getTopSolidOrLiquid(final Chunk chunk, final int x, final int z) {
+		// Not the height map, which passes over blocks that let light through
+		// but still block movement such as cactus, fences and panes
+		final ExtendedBlockStorage[] storage = chunk.getBlockStorageArray();
+		for (int y = chunk.getTopFilledSegment() + 15; y >= 0; y--) {
+			final ExtendedBlockStorage section = storage[y >> 4];
+			if (section == null) {
+				// Skip to the top of the section below
+				y &= ~15;
+				continue;
+			}
+			final Material material = section.getBlockByExtId(x, y & 15, z).getMaterial();
+			if (material.blocksMovement() && material != Material.leaves)
+				return y + 1;
+		}
+		return 0;
 	}
 
 	public static int getRegionAverageGroundLevel(final World world, final StructureBoundingBox worldBB) {
@@ -24,25 +24,21 @@
 
 package org.blockartistry.mod.Restructured.world;
 
-import java.util.HashSet;
-import java.util.List;
 import java.util.Random;
-import java.util.Set;
 
 import org.blockartistry.mod.Restructured.ModOptions;
 import org.blockartistry.mod.Restructured.assets.Assets;
 import org.blockartistry.mod.Restructured.assets.SchematicProperties;
 import org.blockartistry.mod.Restructured.assets.SchematicWeightItem;
 import org.blockartistry.mod.Restructured.util.ElementRule;
-import org.blockartistry.mod.Restructured.util.WeightTable;
+import org.blockartistry.mod.Restructured.util.AliasWeightTable;
 
 import net.minecraft.util.BlockPos;
 import net.minecraft.util.EnumFacing;
-import net.minecraft.village.Village;
-import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.BiomeGenBase;
 import net.minecraft.world.chunk.IChunkProvider;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
 import net.minecraftforge.fml.common.IWorldGenerator;
 import net.minecraftforge.fml.common.registry.GameRegistry;
 
@@ -52,10 +48,16 @@ public class SchematicWorldGenHandler implements IWorldGenerator {
 
 	private static final int ONE_IN_N_CHANCE = ModOptions.getGenerationChance();
 	private static final int MINIMUM_SPAWN_DISTANCE = 4; // chunks
-	private static final int MINIMUM_VILLAGE_DISTANCE_SQUARED = 64; // chunks
-	private static final int MINIMUM_GEN_DISTANCE_SQUARED = 64; // chunks
+	private static final int MINIMUM_VILLAGE_DISTANCE = 8; // chunks
+	private static final int STRUCTURE_SPACING = ModOptions.getStructureSpacing(); // chunks
 
-	private static final Set<ChunkCoordIntPair> activeGeneration = new HashSet<ChunkCoordIntPair>();
+	// Keeps our start rolls from lining up with vanilla structures
+	private static final long SEED_SALT = 0x5265737472756374L;
+
+	// Largest extent of a structure, in blocks, and how far, in chunks, one
+	// can reach from its start chunk
+	private final int span;
+	private final int searchRadius;
 
 	private static BlockPos getRandomStart(final Random rand, final int chunkX, final int chunkZ) {
 		final int x = (chunkX << 4) + 3 + rand.nextInt(8);
@@ -63,57 +65,112 @@ public class SchematicWorldGenHandler implements IWorldGenerator {
 		return new BlockPos(x, 0, z);
 	}
 
-	private static long distanceSq(final ChunkCoordIntPair pt1, final ChunkCoordIntPair pt2) {
-		final long dX = pt1.chunkXPos - pt2.chunkXPos;
-		final long dZ = pt1.chunkZPos - pt2.chunkZPos;
-		return dX * dX + dZ * dZ;
-	}
-
 	private static long distanceSq(final BlockPos pt1, final BlockPos pt2) {
 		final long dX = (pt1.getX() - pt2.getX()) >> 4;
 		final long dZ = (pt1.getZ() - pt2.getZ()) >> 4;
 		return dX * dX + dZ * dZ;
 	}
 
-	private static boolean tooCloseToOtherGen(final ChunkCoordIntPair loc) {
+	public SchematicWorldGenHandler() {
+		this.span = Assets.getWorldStructureSpan();
+		this.searchRadius = (this.span >> 4) + 1;
+		GameRegistry.registerWorldGenerator(this, 200);
+	}
 
-		synchronized (activeGeneration) {
-			if (activeGeneration.isEmpty())
-				return false;
+	private static boolean anyVillagesTooClose(final World world, final BlockPos loc) {
+		return VillageIndex.get(world).isNear(world, loc, MINIMUM_VILLAGE_DISTANCE);
+	}
 
-			for (final ChunkCoordIntPair a : activeGeneration)
-				if (distanceSq(loc, a) <= MINIMUM_GEN_DISTANCE_SQUARED)
-					return true;
-		}
+	private static boolean tooCloseToSpawn(final World world, final BlockPos loc) {
+		return distanceSq(loc, world.getSpawnPoint()) < MINIMUM_SPAWN_DISTANCE;
+	}
 
-		return false;
+	private static EnumFacing randomDirection(final Random random) {
+		return EnumFacing.HORIZONTALS[random.nextInt(EnumFacing.HORIZONTALS.length)];
 	}
 
-	public SchematicWorldGenHandler() {
-		GameRegistry.registerWorldGenerator(this, 200);
+	/**
+	 * Random for deciding what starts in a chunk. It only depends on the
+	 * world seed and the chunk so any chunk can work out the structures that
+	 * reach into it, whichever of their chunks populates first.
+	 */
+	private static Random getStartRandom(final World world, final int chunkX, final int chunkZ) {
+		final long seed = world.getSeed() ^ SEED_SALT;
+		final Random rand = new Random(seed);
+		final long xSeed = rand.nextLong();
+		final long zSeed = rand.nextLong();
+		rand.setSeed((chunkX * xSeed) ^ (chunkZ * zSeed) ^ seed);
+		return rand;
 	}
 
-	private static boolean anyVillagesTooClose(final World world, final BlockPos loc) {
+	/**
+	 * Works out the structure that would start in the chunk, if any. This
+	 * does not touch any chunks.
+	 */
+	private SchematicWorldGenStructure getCandidate(final World world, final int chunkX, final int chunkZ) {
+
+		// Nothing can generate here whatever the biome
+		final int dimension = world.provider.getDimensionId();
+		if (!Assets.hasWorldGenFor(dimension))
+			return null;
+
+		final Random random = getStartRandom(world, chunkX, chunkZ);
+
+		// Chance to even go forward with gen
+		if (ONE_IN_N_CHANCE < 1 || random.nextInt(ONE_IN_N_CHANCE) > 0)
+			return null;
 
-		// Sometimes it can be null during initial map start
-		if (world.villageCollectionObj == null)
-			return false;
+		// Figure the x and z in the target chunk
+		final BlockPos start = getRandomStart(random, chunkX, chunkZ);
 
-		final List<Village> villageList = world.villageCollectionObj.getVillageList();
+		// Obtain parameters for matching possible schematics for the area
+		final BiomeGenBase biome = BiomeHelper.footprintBiomeSurvey(world, start.getX(), start.getZ(), this.span);
 
-		for (final Village v : villageList)
-			if (distanceSq(loc, v.getCenter()) < MINIMUM_VILLAGE_DISTANCE_SQUARED)
-				return true;
+		// Find applicable structures for this attempt. If there aren't
+		// any return.
+		final AliasWeightTable<SchematicWeightItem> structs = Assets.getTableForWorldGen(dimension, biome);
+		if (structs.size() == 0)
+			return null;
 
-		return false;
+		// Pick a schematic
+		final SchematicProperties props = structs.next(random).properties;
+		final EnumFacing orientation = randomDirection(random);
+		return new SchematicWorldGenStructure(world, biome, orientation, start.getX(), start.getZ(), props);
 	}
 
-	private static boolean tooCloseToSpawn(final World world, final BlockPos loc) {
-		return distanceSq(loc, world.getSpawnPoint()) < MINIMUM_SPAWN_DISTANCE;
+	/**
+	 * Settles a candidate on the terrain of the chunk being populated and
+	 * records the outcome so the other chunks it covers agree on it.
+	 */
+	private static StructurePlans.Plan commit(final World world, final StructurePlans plans,
+			final StructureIndex index, final int chunkX, final int chunkZ, final SchematicWorldGenStructure candidate,
+			final StructureBoundingBox chunkBox) {
+
+		final StructureBoundingBox box = candidate.getBoundingBox();
+		final BlockPos center = new BlockPos((box.minX + box.maxX) / 2, 0, (box.minZ + box.maxZ) / 2);
+
+		candidate.setClip(chunkBox);
+		final boolean ok = !index.isNear(box, STRUCTURE_SPACING) && !anyVillagesTooClose(world, center)
+				&& !tooCloseToSpawn(world, center) && candidate.ground();
+
+		final StructurePlans.Plan plan = new StructurePlans.Plan(candidate.properties.name,
+				candidate.biome.biomeID, candidate.direction, candidate.getBoundingBox(), !ok);
+		plans.addPlan(chunkX, chunkZ, plan);
+		if (ok)
+			index.add(plan.name, plan.box);
+		return plan;
 	}
 
-	private static EnumFacing randomDirection(final Random random) {
-		return EnumFacing.HORIZONTALS[random.nextInt(EnumFacing.HORIZONTALS.length)];
+	private static void place(final World world, final StructurePlans.Plan plan,
+			final StructureBoundingBox chunkBox) {
+		final SchematicProperties props = Assets.getProperties(plan.name);
+		if (props == null)
+			return;
+
+		final SchematicWorldGenStructure structure = new SchematicWorldGenStructure(world,
+				BiomeGenBase.getBiome(plan.biome), plan.direction, new StructureBoundingBox(plan.box), props);
+		structure.setClip(chunkBox);
+		structure.build();
 	}
 
 	@Override
@@ -128,50 +185,34 @@ public class SchematicWorldGenHandler implements IWorldGenerator {
 		if (!world.getWorldInfo().isMapFeaturesEnabled())
 			return;
 
-		// Chance to even go forward with gen
-		if (ONE_IN_N_CHANCE < 1 || random.nextInt(ONE_IN_N_CHANCE) > 0)
-			return;
-
-		// See if there is some other gen occuring close by. This
-		// gen can be forcing other chunks to initialize thus triggering
-		// generation attempts. We don't want to step on each other.
-		final ChunkCoordIntPair currentGen = new ChunkCoordIntPair(chunkX, chunkZ);
-		synchronized (activeGeneration) {
-			if (tooCloseToOtherGen(currentGen) || !activeGeneration.add(currentGen))
-				return;
-		}
-
-		try {
-			// Figure the x and z in the target chunk
-			final BlockPos start = getRandomStart(random, chunkX, chunkZ);
-
-			// See if we are too close to a village or to world spawn
-			if (anyVillagesTooClose(world, start) || tooCloseToSpawn(world, start))
-				return;
-
-			// Obtain parameters for matching possible schematics for the area
-			final int dimension = world.provider.getDimensionId();
-			final BiomeGenBase biome = BiomeHelper.chunkBiomeSurvey(world, chunkGenerator.provideChunk(chunkX, chunkZ),
-					random);
-
-			// Find applicable structures for this attempt. If there aren't
-			// any return.
-			final WeightTable<SchematicWeightItem> structs = Assets.getTableForWorldGen(dimension, biome);
-			if (structs.size() == 0)
-				return;
-
-			// Pick a schematic and build it
-			final SchematicProperties props = structs.next().properties;
-			final EnumFacing orientation = randomDirection(random);
-			final SchematicWorldGenStructure structure = new SchematicWorldGenStructure(world, biome, orientation,
-					start.getX(), start.getZ(), props);
-			structure.build();
-
-		} finally {
-			// Remove our bread crumb - we are done
-			synchronized (activeGeneration) {
-				activeGeneration.remove(currentGen);
+		// Everything is clipped to the chunk being populated so no
+		// neighboring chunk is ever forced to generate.
+		final StructureBoundingBox chunkBox = new StructureBoundingBox(chunkX << 4, 1, chunkZ << 4,
+				(chunkX << 4) + 15, 512, (chunkZ << 4) + 15);
+		final StructurePlans plans = StructurePlans.get(world);
+		final StructureIndex index = StructureIndex.get(world);
+
+		for (int startX = chunkX - this.searchRadius; startX <= chunkX + this.searchRadius; startX++)
+			for (int startZ = chunkZ - this.searchRadius; startZ <= chunkZ + this.searchRadius; startZ++) {
+
+				StructurePlans.Plan plan = plans.getPlan(startX, startZ);
+				if (plan == null) {
+					// A structure covers its start chunk, so one that starts
+					// too close to an existing structure can never pass
+					if (index.isNear(startX, startZ, STRUCTURE_SPACING))
+						continue;
+					final SchematicWorldGenStructure candidate = getCandidate(world, startX, startZ);
+					if (candidate == null || !candidate.getBoundingBox().intersectsWith(chunkBox.minX, chunkBox.minZ,
+							chunkBox.maxX, chunkBox.maxZ))
+						continue;
+					plan = commit(world, plans, index, startX, startZ, candidate, chunkBox);
+				} else if (!plan.intersectsChunk(chunkX, chunkZ) || plan.isPlaced(chunkX, chunkZ)) {
+					continue;
+				}
+
+				if (!plan.rejected)
+					place(world, plan, chunkBox);
+				plans.markPlaced(startX, startZ, plan, chunkX, chunkZ);
 			}
-		}
 	}
 }
@@ -26,6 +26,7 @@ package org.blockartistry.mod.Restructured.world;
 
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.BlockPos;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.world.World;
@@ -33,6 +34,8 @@ import net.minecraft.world.biome.BiomeGenBase;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 import org.blockartistry.mod.Restructured.ModLog;
+import org.blockartistry.mod.Restructured.ModOptions;
+import org.blockartistry.mod.Restructured.assets.Assets;
 import org.blockartistry.mod.Restructured.assets.SchematicProperties;
 import org.blockartistry.mod.Restructured.component.CopyStructureBuilder;
 import org.blockartistry.mod.Restructured.component.IStructureBuilder;
@@ -47,15 +50,23 @@ public class SchematicWorldGenStructure implements IStructureBuilder {
 	private static final int VARIANCE_THRESHOLD = 3;
 	private static final int WATER_RATIO_THRESHOLD = 35;
 
+	private static final String NBT_NAME = "name";
+	private static final String NBT_BIOME = "biome";
+	private static final String NBT_DIRECTION = "direction";
+	private static final String NBT_BOX = "box";
+	private static final String NBT_CLIP = "clip";
+
 	protected final World world;
 	protected EnumFacing direction;
 	protected final SchematicProperties properties;
+	protected BulkBlockWriter writer;
 	protected StructureBoundingBox boundingBox;
+	protected StructureBoundingBox clip;
 	protected final BiomeGenBase biome;
 
 	public SchematicWorldGenStructure(final World world, final BiomeGenBase biome, final EnumFacing direction,
 			final int x, final int z, final SchematicProperties properties) {
-		final Dimensions size = properties.schematic.getDimensions();
+		final Dimensions size = properties.size;
 		this.world = world;
 		this.direction = direction;
 		this.properties = properties;
@@ -64,9 +75,54 @@ public class SchematicWorldGenStructure implements IStructureBuilder {
 				size.length, direction);
 	}
 
+	/**
+	 * Creates a structure at a known location, such as one that was planned
+	 * earlier or whose build was persisted part way through.
+	 */
+	public SchematicWorldGenStructure(final World world, final BiomeGenBase biome, final EnumFacing direction,
+			final StructureBoundingBox boundingBox, final SchematicProperties properties) {
+		this.world = world;
+		this.direction = direction;
+		this.properties = properties;
+		this.biome = biome;
+		this.boundingBox = boundingBox;
+	}
+
+	public static SchematicWorldGenStructure readFromNBT(final World world, final NBTTagCompound nbt) {
+		final SchematicProperties props = Assets.getProperties(nbt.getString(NBT_NAME));
+		if (props == null)
+			return null;
+		final BiomeGenBase biome = BiomeGenBase.getBiome(nbt.getInteger(NBT_BIOME));
+		final EnumFacing direction = EnumFacing.getFront(nbt.getInteger(NBT_DIRECTION));
+		final StructureBoundingBox box = new StructureBoundingBox(nbt.getIntArray(NBT_BOX));
+		final SchematicWorldGenStructure structure = new SchematicWorldGenStructure(world, biome, direction, box,
+				props);
+		if (nbt.hasKey(NBT_CLIP))
+			structure.setClip(new StructureBoundingBox(nbt.getIntArray(NBT_CLIP)));
+		return structure;
+	}
+
+	public void writeToNBT(final NBTTagCompound nbt) {
+		nbt.setString(NBT_NAME, this.properties.name);
+		nbt.setInteger(NBT_BIOME, this.biome.biomeID);
+		nbt.setInteger(NBT_DIRECTION, this.direction.getIndex());
+		nbt.setTag(NBT_BOX, this.boundingBox.toNBTTagIntArray());
+		if (this.clip != null)
+			nbt.setTag(NBT_CLIP, this.clip.toNBTTagIntArray());
+	}
+
+	public String getName() {
+		return this.properties.name;
+	}
+
+	@Override
+	public StructureBoundingBox getBoundingBox() {
+		return this.boundingBox;
+	}
+
 	@Override
 	public Dimensions getDimensions() {
-		return properties.schematic.getDimensions();
+		return properties.size;
 	}
 
 	@Override
@@ -86,11 +142,15 @@ public class SchematicWorldGenStructure implements IStructureBuilder {
 			final StructureBoundingBox box) {
 		final BlockPos pos = getWorldCoordinates(v);
 		if (box.isVecInside(pos)) {
-			final IBlockState blockToPlace = BlockThemes.findReplacement(this.biome, state);
-			world.setBlockState(pos, blockToPlace, 2);
+			world.setBlockState(pos, getPlacementState(state), 2);
 		}
 	}
 
+	@Override
+	public IBlockState getPlacementState(final IBlockState state) {
+		return BlockThemes.findReplacement(this.biome, state);
+	}
+
 	protected int getXWithOffset(final int x, final int z) {
 		if (this.direction == null)
 			return x;
@@ -129,6 +189,15 @@ public class SchematicWorldGenStructure implements IStructureBuilder {
 		}
 	}
 
+	// Terrain preparation goes through the same writer as the build so it
+	// is lit along with the structure.
+	protected void setBlockState(final BlockPos pos, final IBlockState state) {
+		if (this.writer != null)
+			this.writer.setBlockState(pos, state);
+		else
+			world.setBlockState(pos, state, 2);
+	}
+
 	/**
 	 * Deletes all continuous blocks from selected position upwards. Stops at
 	 * hitting air.
@@ -142,7 +211,7 @@ public class SchematicWorldGenStructure implements IStructureBuilder {
 
 		if (box.isVecInside(pos)) {
 			while (!world.isAirBlock(pos) && i1 < pos.getY()) {
-				world.setBlockState(pos, Blocks.air.getDefaultState(), 2);
+				setBlockState(pos, Blocks.air.getDefaultState());
 				pos = pos.up();
 			}
 		}
@@ -161,8 +230,9 @@ public class SchematicWorldGenStructure implements IStructureBuilder {
 
 			do {
 				final IBlockState t = world.getBlockState(pos);
-				if (BlockHelper.isAir(t) || BlockHelper.isLiquid(t) || !BlockHelper.isSolid(t)) {
-					world.setBlockState(pos, state, 2);
+				// Air and liquids are not solid either
+				if ((BlockHelper.getFlags(t) & BlockHelper.SOLID) == 0) {
+					setBlockState(pos, state);
 					pos = pos.down();
 				} else
 					break;
@@ -170,11 +240,69 @@ public class SchematicWorldGenStructure implements IStructureBuilder {
 		}
 	}
 
-	protected boolean prepare(final StructureBoundingBox box) {
+	/**
+	 * The part of the structure footprint that is inside the clip region.
+	 */
+	protected StructureBoundingBox getFootprint() {
+		if (this.clip == null)
+			return boundingBox;
+		return new StructureBoundingBox(Math.max(boundingBox.minX, clip.minX), boundingBox.minY,
+				Math.max(boundingBox.minZ, clip.minZ), Math.min(boundingBox.maxX, clip.maxX), boundingBox.maxY,
+				Math.min(boundingBox.maxZ, clip.maxZ));
+	}
 
-		// This calculation can result in additional chunk load/creates.
-		// The size of the structure could cause it to span chunks.
-		final RegionStats stats = RegionHelper.getRegionStatsWithVariance(world, boundingBox);
+	// Narrowest survey on either axis
+	private static final int MIN_SURVEY_SPAN = 16;
+
+	/**
+	 * The terrain examined by ground(). With a clip region the survey may only
+	 * read the clip chunk and its +X/+Z neighbours, since those are the chunks
+	 * vanilla guarantees to exist while a chunk is populated. Within that
+	 * window the survey covers the footprint, and is widened to at least
+	 * MIN_SURVEY_SPAN on each axis so a structure that only clips a few
+	 * columns of the window is not judged on those columns alone. Terrain
+	 * beyond the window is never seen, so a structure larger than the window
+	 * can still end up over a ravine or lake elsewhere in its footprint.
+	 */
+	protected StructureBoundingBox getSurveyArea() {
+		if (this.clip == null)
+			return boundingBox;
+
+		final int windowMinX = clip.minX;
+		final int windowMaxX = clip.maxX + 16;
+		final int windowMinZ = clip.minZ;
+		final int windowMaxZ = clip.maxZ + 16;
+
+		int minX = Math.max(boundingBox.minX, windowMinX);
+		int maxX = Math.min(boundingBox.maxX, windowMaxX);
+		int minZ = Math.max(boundingBox.minZ, windowMinZ);
+		int maxZ = Math.min(boundingBox.maxZ, windowMaxZ);
+
+		if (maxX - minX + 1 < MIN_SURVEY_SPAN) {
+			minX = Math.min(minX, windowMaxX - MIN_SURVEY_SPAN + 1);
+			maxX = minX + MIN_SURVEY_SPAN - 1;
+		}
+		if (maxZ - minZ + 1 < MIN_SURVEY_SPAN) {
+			minZ = Math.min(minZ, windowMaxZ - MIN_SURVEY_SPAN + 1);
+			maxZ = minZ + MIN_SURVEY_SPAN - 1;
+		}
+
+		return new StructureBoundingBox(minX, boundingBox.minY, minZ, maxX, boundingBox.maxY, maxZ);
+	}
+
+	/**
+	 * Settles the structure on the terrain examined by getSurveyArea().
+	 * Returns false if the terrain is not suitable.
+	 */
+	public boolean ground() {
+
+		// Any water at all fails the ratio test below since the water count
+		// can never exceed the area, so the survey can stop at the first
+		// water column.
+		final RegionStats stats = RegionHelper.getRegionStatsWithVariance(world, getSurveyArea(),
+				VARIANCE_THRESHOLD, 0);
+		if (!stats.complete)
+			return false;
 
 		// If there is too much variance return false. Can't stand
 		// structures on dirt pillars.
@@ -192,6 +320,11 @@ public class SchematicWorldGenStructure implements IStructureBuilder {
 		ModLog.debug("WorldGen structure [%s] @(%s); mode %d", properties.name, boundingBox, direction);
 		ModLog.debug(stats.toString());
 
+		return true;
+	}
+
+	protected void prepare(final StructureBoundingBox box) {
+
 		// Ensure a platform for the structure
 		final IBlockState blockToPlace = BlockThemes.findReplacement(this.biome, DIRT_BLOCK);
 		final Dimensions size = getDimensions();
@@ -201,19 +334,53 @@ public class SchematicWorldGenStructure implements IStructureBuilder {
 				clearDownwards(blockToPlace, xx, -1, zz, box);
 			}
 		}
+	}
 
-		return true;
+	protected StructureBoundingBox getBuildBox() {
+		final StructureBoundingBox footprint = getFootprint();
+		return new StructureBoundingBox(footprint.minX, 1, footprint.minZ, footprint.maxX, 512, footprint.maxZ);
+	}
+
+	/**
+	 * Limits all reads and writes to the region, such as the chunk that is
+	 * currently being populated.
+	 */
+	public void setClip(final StructureBoundingBox clip) {
+		this.clip = clip;
+	}
+
+	/**
+	 * Creates the builder for the structure. The build box only depends on
+	 * the X/Z extent so it is the same before and after ground().
+	 */
+	public CopyStructureBuilder getBuilder() {
+		if (this.writer == null && ModOptions.getBulkPlacement())
+			this.writer = new BulkBlockWriter(world);
+		return new CopyStructureBuilder(world, getBuildBox(), direction, properties, this, this.writer);
 	}
 
+	/**
+	 * Builds the structure, or the part of it inside the clip region. The
+	 * structure should have been grounded first.
+	 */
 	public void build() {
 
-		final StructureBoundingBox box = new StructureBoundingBox(boundingBox.minX, 1, boundingBox.minZ,
-				boundingBox.maxX, 512, boundingBox.maxZ);
+		final StructureBoundingBox box = getBuildBox();
 
-		if (!prepare(box))
-			return;
+		this.writer = ModOptions.getBulkPlacement() ? new BulkBlockWriter(world) : null;
 
-		final CopyStructureBuilder builder = new CopyStructureBuilder(world, box, direction, properties, this);
-		builder.generate();
+		prepare(box);
+
+		final CopyStructureBuilder builder = getBuilder();
+
+		if (ModOptions.getIncrementalPlacement()) {
+			// The terrain work is done now; the structure itself is placed
+			// a slice at a time over the following ticks.
+			if (this.writer != null)
+				this.writer.finish();
+			PlacementScheduler.schedule(world, this, builder);
+		} else {
+			builder.generate();
+		}
 	}
 }
@@ -0,0 +1,238 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.world;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+import net.minecraft.world.storage.MapStorage;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+/**
+ * Where world gen structures have been built. Entries are kept in regions
+ * of 32x32 chunks, each saved as its own WorldSavedData so only the regions
+ * that are asked about are loaded and only the ones that change are saved.
+ * A structure is listed in every region its bounding box reaches, so a
+ * proximity query only looks at the few regions around the area.
+ */
+public final class StructureIndex {
+
+	private static final int REGION_SHIFT = 9; // blocks
+	private static final String IDENTIFIER = "RestructuredIndex";
+
+	// Regions known to hold nothing, kept so a query does not probe the disk
+	// for them every time. Capped; the least recently used are forgotten.
+	private static final int MAX_EMPTY_REGIONS = 256;
+
+	private static final Map<World, StructureIndex> cache = new IdentityHashMap<World, StructureIndex>();
+
+	public static final class Entry {
+
+		public final String name;
+		public final StructureBoundingBox box;
+
+		public Entry(final String name, final StructureBoundingBox box) {
+			this.name = name;
+			this.box = box;
+		}
+	}
+
+	public static final class Region extends WorldSavedData {
+
+		private static final String NBT_ENTRIES = "entries";
+		private static final String NBT_NAME = "name";
+		private static final String NBT_BOX = "box";
+
+		protected final List<Entry> entries = new CopyOnWriteArrayList<Entry>();
+
+		// Whether the region is known to the world storage. Regions with
+		// nothing in them are not written out.
+		protected boolean registered;
+
+		public Region(final String id) {
+			super(id);
+		}
+
+		@Override
+		public void readFromNBT(final NBTTagCompound nbt) {
+			this.entries.clear();
+			final NBTTagList list = nbt.getTagList(NBT_ENTRIES, Constants.NBT.TAG_COMPOUND);
+			for (int i = 0; i < list.tagCount(); i++) {
+				final NBTTagCompound tag = list.getCompoundTagAt(i);
+				this.entries.add(new Entry(tag.getString(NBT_NAME), new StructureBoundingBox(tag.getIntArray(NBT_BOX))));
+			}
+		}
+
+		@Override
+		public void writeToNBT(final NBTTagCompound nbt) {
+			final NBTTagList list = new NBTTagList();
+			for (final Entry e : this.entries) {
+				final NBTTagCompound tag = new NBTTagCompound();
+				tag.setString(NBT_NAME, e.name);
+				tag.setTag(NBT_BOX, e.box.toNBTTagIntArray());
+				list.appendTag(tag);
+			}
+			nbt.setTag(NBT_ENTRIES, list);
+		}
+	}
+
+	private final MapStorage storage;
+
+	// Regions with entries. These are also held by the MapStorage so there
+	// is nothing to gain by evicting them.
+	private final ConcurrentMap<Long, Region> regions = new ConcurrentHashMap<Long, Region>();
+
+	// Access ordered; guarded by the storage lock
+	private final Map<Long, Region> empty = new LinkedHashMap<Long, Region>(16, 0.75F, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Long, Region> eldest) {
+			return size() > MAX_EMPTY_REGIONS;
+		}
+	};
+
+	private StructureIndex(final MapStorage storage) {
+		this.storage = storage;
+	}
+
+	public static final class UnloadHandler {
+		@SubscribeEvent
+		public void onWorldUnload(final WorldEvent.Unload event) {
+			synchronized (cache) {
+				cache.remove(event.world);
+			}
+		}
+	}
+
+	public static void initialize() {
+		MinecraftForge.EVENT_BUS.register(new UnloadHandler());
+	}
+
+	public static StructureIndex get(final World world) {
+		synchronized (cache) {
+			StructureIndex result = cache.get(world);
+			if (result == null) {
+				result = new StructureIndex(world.getPerWorldStorage());
+				cache.put(world, result);
+			}
+			return result;
+		}
+	}
+
+	// MapStorage is backed by a plain HashMap and ArrayList, so every call
+	// made into it from here holds its lock. Lookups of regions that are
+	// already known do not touch it.
+	private Region getRegion(final int regionX, final int regionZ) {
+		final Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(regionX, regionZ));
+		Region region = this.regions.get(key);
+		if (region != null)
+			return region;
+
+		synchronized (this.storage) {
+			region = this.regions.get(key);
+			if (region == null)
+				region = this.empty.get(key);
+			if (region == null) {
+				final String id = IDENTIFIER + "." + regionX + "." + regionZ;
+				region = (Region) this.storage.loadData(Region.class, id);
+				if (region != null) {
+					region.registered = true;
+					this.regions.put(key, region);
+				} else {
+					region = new Region(id);
+					this.empty.put(key, region);
+				}
+			}
+			return region;
+		}
+	}
+
+	/**
+	 * Records a structure in each region its bounding box reaches.
+	 */
+	public void add(final String name, final StructureBoundingBox box) {
+		final Entry entry = new Entry(name, box);
+
+		// Held throughout so an empty region cannot be evicted and loaded
+		// again as a second copy while it is being filled
+		synchronized (this.storage) {
+			for (int regionX = box.minX >> REGION_SHIFT; regionX <= box.maxX >> REGION_SHIFT; regionX++)
+				for (int regionZ = box.minZ >> REGION_SHIFT; regionZ <= box.maxZ >> REGION_SHIFT; regionZ++) {
+					final Region region = getRegion(regionX, regionZ);
+					region.entries.add(entry);
+					if (!region.registered) {
+						this.storage.setData(region.mapName, region);
+						region.registered = true;
+						final Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(regionX, regionZ));
+						this.empty.remove(key);
+						this.regions.put(key, region);
+					}
+					region.markDirty();
+				}
+		}
+	}
+
+	/**
+	 * Whether a structure lies within the distance, in chunks, of the box.
+	 * Only X and Z are considered.
+	 */
+	public boolean isNear(final StructureBoundingBox box, final int distance) {
+		final int minX = box.minX - (distance << 4);
+		final int minZ = box.minZ - (distance << 4);
+		final int maxX = box.maxX + (distance << 4);
+		final int maxZ = box.maxZ + (distance << 4);
+
+		for (int regionX = minX >> REGION_SHIFT; regionX <= maxX >> REGION_SHIFT; regionX++)
+			for (int regionZ = minZ >> REGION_SHIFT; regionZ <= maxZ >> REGION_SHIFT; regionZ++)
+				for (final Entry e : getRegion(regionX, regionZ).entries)
+					if (e.box.intersectsWith(minX, minZ, maxX, maxZ))
+						return true;
+		return false;
+	}
+
+	/**
+	 * Whether a structure lies within the distance, in chunks, of the chunk.
+	 */
+	public boolean isNear(final int chunkX, final int chunkZ, final int distance) {
+		return isNear(new StructureBoundingBox(chunkX << 4, 0, chunkZ << 4, (chunkX << 4) + 15, 255,
+				(chunkZ << 4) + 15), distance);
+	}
+}
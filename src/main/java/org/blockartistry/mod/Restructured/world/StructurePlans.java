@@ -0,0 +1,194 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.world;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * World gen structures that have been planned but not yet fully placed,
+ * keyed by the chunk they start in. A plan is created the first time a
+ * chunk it covers is populated; that is when the structure is settled on
+ * the terrain. The remaining chunks place their part of it when they
+ * populate, and the plan is dropped once every chunk it covers is done.
+ */
+public final class StructurePlans extends WorldSavedData {
+
+	public static final String IDENTIFIER = "RestructuredPlans";
+
+	private static final String NBT_PLANS = "plans";
+	private static final String NBT_START = "start";
+	private static final String NBT_NAME = "name";
+	private static final String NBT_BIOME = "biome";
+	private static final String NBT_DIRECTION = "direction";
+	private static final String NBT_BOX = "box";
+	private static final String NBT_REJECTED = "rejected";
+	private static final String NBT_PLACED = "placed";
+
+	private static final Map<World, StructurePlans> cache = new WeakHashMap<World, StructurePlans>();
+
+	public static final class Plan {
+
+		public final String name;
+		public final int biome;
+		public final EnumFacing direction;
+		public final StructureBoundingBox box;
+
+		// Terrain was not suitable - nothing is placed
+		public final boolean rejected;
+
+		// Chunks that have placed their part
+		protected final Set<Long> placed = Collections.synchronizedSet(new HashSet<Long>());
+
+		public Plan(final String name, final int biome, final EnumFacing direction, final StructureBoundingBox box,
+				final boolean rejected) {
+			this.name = name;
+			this.biome = biome;
+			this.direction = direction;
+			this.box = box;
+			this.rejected = rejected;
+		}
+
+		public boolean intersectsChunk(final int chunkX, final int chunkZ) {
+			return this.box.intersectsWith(chunkX << 4, chunkZ << 4, (chunkX << 4) + 15, (chunkZ << 4) + 15);
+		}
+
+		public boolean isPlaced(final int chunkX, final int chunkZ) {
+			return this.placed.contains(key(chunkX, chunkZ));
+		}
+
+		public int getChunkCount() {
+			return ((this.box.maxX >> 4) - (this.box.minX >> 4) + 1) * ((this.box.maxZ >> 4) - (this.box.minZ >> 4) + 1);
+		}
+	}
+
+	private final Map<Long, Plan> plans = new ConcurrentHashMap<Long, Plan>();
+
+	public StructurePlans(final String id) {
+		super(id);
+	}
+
+	public static StructurePlans get(final World world) {
+		synchronized (cache) {
+			StructurePlans result = cache.get(world);
+			if (result == null) {
+				result = (StructurePlans) world.getPerWorldStorage().loadData(StructurePlans.class, IDENTIFIER);
+				if (result == null) {
+					result = new StructurePlans(IDENTIFIER);
+					world.getPerWorldStorage().setData(IDENTIFIER, result);
+				}
+				cache.put(world, result);
+			}
+			return result;
+		}
+	}
+
+	private static Long key(final int chunkX, final int chunkZ) {
+		return Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+	}
+
+	public Plan getPlan(final int chunkX, final int chunkZ) {
+		return this.plans.get(key(chunkX, chunkZ));
+	}
+
+	public boolean hasPlan(final int chunkX, final int chunkZ) {
+		return this.plans.containsKey(key(chunkX, chunkZ));
+	}
+
+	public void addPlan(final int chunkX, final int chunkZ, final Plan plan) {
+		this.plans.put(key(chunkX, chunkZ), plan);
+		markDirty();
+	}
+
+	/**
+	 * Records that a chunk covered by the plan has populated. The plan is
+	 * dropped once all of its chunks have.
+	 */
+	public void markPlaced(final int startX, final int startZ, final Plan plan, final int chunkX, final int chunkZ) {
+		plan.placed.add(key(chunkX, chunkZ));
+		if (plan.placed.size() >= plan.getChunkCount())
+			this.plans.remove(key(startX, startZ));
+		markDirty();
+	}
+
+	@Override
+	public void readFromNBT(final NBTTagCompound nbt) {
+		this.plans.clear();
+		final NBTTagList list = nbt.getTagList(NBT_PLANS, Constants.NBT.TAG_COMPOUND);
+		for (int i = 0; i < list.tagCount(); i++) {
+			final NBTTagCompound tag = list.getCompoundTagAt(i);
+			final Plan plan = new Plan(tag.getString(NBT_NAME), tag.getInteger(NBT_BIOME),
+					EnumFacing.getFront(tag.getInteger(NBT_DIRECTION)),
+					new StructureBoundingBox(tag.getIntArray(NBT_BOX)), tag.getBoolean(NBT_REJECTED));
+			final int[] placed = tag.getIntArray(NBT_PLACED);
+			for (int j = 0; j + 1 < placed.length; j += 2)
+				plan.placed.add(key(placed[j], placed[j + 1]));
+			this.plans.put(Long.valueOf(tag.getLong(NBT_START)), plan);
+		}
+	}
+
+	@Override
+	public void writeToNBT(final NBTTagCompound nbt) {
+		final NBTTagList list = new NBTTagList();
+		for (final Map.Entry<Long, Plan> e : this.plans.entrySet()) {
+			final Plan plan = e.getValue();
+			final NBTTagCompound tag = new NBTTagCompound();
+			tag.setLong(NBT_START, e.getKey().longValue());
+			tag.setString(NBT_NAME, plan.name);
+			tag.setInteger(NBT_BIOME, plan.biome);
+			tag.setInteger(NBT_DIRECTION, plan.direction.getIndex());
+			tag.setTag(NBT_BOX, plan.box.toNBTTagIntArray());
+			tag.setBoolean(NBT_REJECTED, plan.rejected);
+
+			final int[] placed;
+			synchronized (plan.placed) {
+				placed = new int[plan.placed.size() * 2];
+				int i = 0;
+				for (final Long k : plan.placed) {
+					// chunkXZ2Int packs X in the low word and Z in the high word
+					placed[i++] = (int) k.longValue();
+					placed[i++] = (int) (k.longValue() >> 32);
+				}
+			}
+			tag.setIntArray(NBT_PLACED, placed);
+			list.appendTag(tag);
+		}
+		nbt.setTag(NBT_PLANS, list);
+	}
+}
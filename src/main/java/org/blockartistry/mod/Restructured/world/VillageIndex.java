@@ -0,0 +1,131 @@
+/*
+ * This file is part of Restructured, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) OreCruncher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.blockartistry.mod.Restructured.world;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.minecraft.util.BlockPos;
+import net.minecraft.village.Village;
+import net.minecraft.village.VillageCollection;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+
+/**
+ * Village centers of a world bucketed into cells of 8x8 chunks so a
+ * proximity check only reads the cells around a point. The village
+ * collection does not report changes, so the cells are rebuilt when the
+ * number of villages changes or when they are older than the refresh
+ * interval; village centers only drift a little as doors come and go.
+ */
+public final class VillageIndex {
+
+	private static final int CELL_SHIFT = 7; // blocks
+	private static final long REFRESH_TICKS = 400;
+
+	private static final Map<World, VillageIndex> cache = new WeakHashMap<World, VillageIndex>();
+
+	private final Map<Long, List<BlockPos>> cells = new HashMap<Long, List<BlockPos>>();
+	private WeakReference<VillageCollection> source = new WeakReference<VillageCollection>(null);
+	private int villageCount = -1;
+	private long refreshed;
+
+	private VillageIndex() {
+	}
+
+	public static VillageIndex get(final World world) {
+		synchronized (cache) {
+			VillageIndex result = cache.get(world);
+			if (result == null) {
+				result = new VillageIndex();
+				cache.put(world, result);
+			}
+			return result;
+		}
+	}
+
+	private static Long key(final int cellX, final int cellZ) {
+		return Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(cellX, cellZ));
+	}
+
+	private void refresh(final World world, final VillageCollection villages) {
+		final List<Village> list = villages.getVillageList();
+		final long now = world.getTotalWorldTime();
+		if (this.source.get() == villages && this.villageCount == list.size() && now - this.refreshed < REFRESH_TICKS)
+			return;
+
+		this.cells.clear();
+		for (final Village v : list) {
+			final BlockPos center = v.getCenter();
+			final Long k = key(center.getX() >> CELL_SHIFT, center.getZ() >> CELL_SHIFT);
+			List<BlockPos> cell = this.cells.get(k);
+			if (cell == null) {
+				cell = new ArrayList<BlockPos>(2);
+				this.cells.put(k, cell);
+			}
+			cell.add(center);
+		}
+
+		this.source = new WeakReference<VillageCollection>(villages);
+		this.villageCount = list.size();
+		this.refreshed = now;
+	}
+
+	/**
+	 * Whether a village center is within the distance, in chunks, of the
+	 * location.
+	 */
+	public synchronized boolean isNear(final World world, final BlockPos loc, final int chunks) {
+		final VillageCollection villages = world.villageCollectionObj;
+		// Sometimes it can be null during initial map start
+		if (villages == null)
+			return false;
+
+		refresh(world, villages);
+		if (this.cells.isEmpty())
+			return false;
+
+		final int distance = chunks << 4;
+		final long limit = (long) chunks * chunks;
+		for (int cellX = (loc.getX() - distance) >> CELL_SHIFT; cellX <= (loc.getX() + distance) >> CELL_SHIFT; cellX++)
+			for (int cellZ = (loc.getZ() - distance) >> CELL_SHIFT; cellZ <= (loc.getZ() + distance) >> CELL_SHIFT; cellZ++) {
+				final List<BlockPos> cell = this.cells.get(key(cellX, cellZ));
+				if (cell == null)
+					continue;
+				for (final BlockPos center : cell) {
+					final long dX = (loc.getX() - center.getX()) >> 4;
+					final long dZ = (loc.getZ() - center.getZ()) >> 4;
+					if (dX * dX + dZ * dZ < limit)
+						return true;
+				}
+			}
+		return false;
+	}
+}
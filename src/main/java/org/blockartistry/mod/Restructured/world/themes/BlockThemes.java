@@ -43,9 +43,16 @@ import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 public final class BlockThemes {
 
 	private static final Map<BiomeGenBase, Map<Block, ThemeBlock>> themes = new IdentityHashMap<BiomeGenBase, Map<Block, ThemeBlock>>();
+
+	// Themes resolved to the replacement state, indexed by biome ID and then
+	// by getKey() of the original. Null means no replacement.
+	private static final IBlockState[][] compiled = new IBlockState[256][];
 	private static final int KEEP_META = -1;
 	private static final ThemeBlock AIR = new ThemeBlock(Blocks.air);
 
+	// Answers already given by the event listeners, by biome
+	private static final Map<BiomeGenBase, Map<IBlockState, IBlockState>> replacements = new IdentityHashMap<BiomeGenBase, Map<IBlockState, IBlockState>>();
+
 	private static final IBlockState[] monsterBlockMap = new IBlockState[] { Blocks.stone.getStateFromMeta(0),
 			Blocks.cobblestone.getStateFromMeta(0), Blocks.stonebrick.getStateFromMeta(0),
 			Blocks.stonebrick.getStateFromMeta(1), Blocks.stonebrick.getStateFromMeta(2),
@@ -84,10 +91,39 @@ public final class BlockThemes {
 	}
 
 	/**
-	 * Invokes the Forge events to figure out any block replacements due to
-	 * themes.
+	 * Figures out any block replacement due to themes. The Forge event is
+	 * posted the first time a state is asked about for a biome and the
+	 * answer is remembered.
 	 */
 	public static IBlockState findReplacement(final BiomeGenBase biome, final IBlockState state) {
+		synchronized (replacements) {
+			Map<IBlockState, IBlockState> cache = replacements.get(biome);
+			if (cache == null) {
+				cache = new IdentityHashMap<IBlockState, IBlockState>();
+				replacements.put(biome, cache);
+			}
+
+			IBlockState result = cache.get(state);
+			if (result == null) {
+				result = postReplacement(biome, state);
+				cache.put(state, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Forgets the remembered replacements so the event listeners are asked
+	 * again, such as when a server starts and other mods may have changed
+	 * their subscriptions.
+	 */
+	public static void clearReplacements() {
+		synchronized (replacements) {
+			replacements.clear();
+		}
+	}
+
+	private static IBlockState postReplacement(final BiomeGenBase biome, final IBlockState state) {
 		// Ask subscribers if they want to replace
 		final BiomeEvent.GetVillageBlockID event1 = new BiomeEvent.GetVillageBlockID(biome, state);
 		MinecraftForge.TERRAIN_GEN_BUS.post(event1);
@@ -294,45 +330,91 @@ public final class BlockThemes {
 		register(BiomeGenBase.mesa, mappings);
 		register(BiomeGenBase.mesaPlateau, mappings);
 
+		compile();
+
 		// Hook for block replacement
 		MinecraftForge.TERRAIN_GEN_BUS.register(new BlockThemes());
 	}
 
-	// Forge Event listener for block replacement. Low priority because
-	// we give other mods a chance to replace before we intercept. This
-	// routine is most commonly called during village generation, though
-	// there isn't a restriction saying this is the only time a replace
-	// request can be made.
-	@SubscribeEvent(priority = EventPriority.LOW)
-	public void blockReplaceEvent(final BiomeEvent.GetVillageBlockID event) {
-		if (event.getResult() == Result.DENY)
-			return;
-		final Map<Block, ThemeBlock> replacements = themes.get(event.biome);
-		if (replacements == null)
-			return;
+	// Resolves each registered theme into a table of replacement states.
+	// Biomes that share a theme share the table.
+	private static void compile() {
+		final Map<Map<Block, ThemeBlock>, IBlockState[]> tables = new IdentityHashMap<Map<Block, ThemeBlock>, IBlockState[]>();
+		for (final Map.Entry<BiomeGenBase, Map<Block, ThemeBlock>> e : themes.entrySet()) {
+			IBlockState[] table = tables.get(e.getValue());
+			if (table == null) {
+				table = compile(e.getValue());
+				tables.put(e.getValue(), table);
+			}
+			compiled[e.getKey().biomeID & 0xFF] = table;
+		}
+	}
+
+	// Block ID in the high bits and meta in the low four, so a table only
+	// needs to reach the highest mapped block
+	private static int getKey(final IBlockState state) {
+		final Block block = state.getBlock();
+		return Block.getIdFromBlock(block) << 4 | block.getMetaFromState(state);
+	}
 
-		// Crack the block portion
-		final IBlockState original = event.original;
-		final ThemeBlock theme = replacements.get(original.getBlock());
+	private static IBlockState lookup(final int biomeId, final IBlockState state) {
+		final IBlockState[] theme = compiled[biomeId & 0xFF];
 		if (theme == null)
-			return;
+			return null;
+		final int key = getKey(state);
+		return key < theme.length ? theme[key] : null;
+	}
+
+	private static IBlockState[] compile(final Map<Block, ThemeBlock> theme) {
+		int maxId = 0;
+		for (final Block block : theme.keySet())
+			maxId = Math.max(maxId, Block.getIdFromBlock(block));
 
+		final IBlockState[] table = new IBlockState[(maxId + 1) << 4];
+		for (final Map.Entry<Block, ThemeBlock> e : theme.entrySet()) {
+			final Block block = e.getKey();
+			for (int meta = 0; meta < 16; meta++) {
+				final IBlockState original = block.getStateFromMeta(meta);
+				table[getKey(original)] = resolve(original, e.getValue());
+			}
+		}
+		return table;
+	}
+
+	private static IBlockState resolve(final IBlockState original, final ThemeBlock theme) {
 		final Block newBlock = theme.getBlock();
+		final int originalMeta = original.getBlock().getMetaFromState(original);
 
 		// Handle the meta
 		int newMeta = theme.getMeta();
 		if (newMeta != KEEP_META) {
 			// Preserve slab orientation
-			if (theme.isSlab())
-				newMeta |= (theme.getMeta() & 8);
+			if (theme.isSlab() && BlockHelper.isSlab(original))
+				newMeta |= (originalMeta & 8);
 			// Preserve log orientation
-			else if (theme.isLog())
-				newMeta |= (theme.getMeta() & 12);
+			else if (theme.isLog() && BlockHelper.isLog(original))
+				newMeta |= (originalMeta & 12);
 		} else {
-			newMeta = original.getBlock().getMetaFromState(original);
+			newMeta = originalMeta;
 		}
 
-		event.replacement = newBlock.getStateFromMeta(newMeta);
+		return newBlock.getStateFromMeta(newMeta);
+	}
+
+	// Forge Event listener for block replacement. Low priority because
+	// we give other mods a chance to replace before we intercept. This
+	// routine is most commonly called during village generation, though
+	// there isn't a restriction saying this is the only time a replace
+	// request can be made.
+	@SubscribeEvent(priority = EventPriority.LOW)
+	public void blockReplaceEvent(final BiomeEvent.GetVillageBlockID event) {
+		if (event.getResult() == Result.DENY || event.biome == null)
+			return;
+		final IBlockState replacement = lookup(event.biome.biomeID, event.original);
+		if (replacement == null)
+			return;
+
+		event.replacement = replacement;
 		event.setResult(Result.DENY);
 	}
 }